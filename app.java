@@ -4,15 +4,14 @@
 // Post.java
 package com.example.socialfeed.model;
 
-import java.util.Date;
-
 public class Post {
     public final String id;
     public final User author;
     public final PostContent content;
-    public final Date timestamp;
+    // Epoch millis.
+    public final long timestamp;
 
-    public Post(String id, User author, PostContent content, Date timestamp) {
+    public Post(String id, User author, PostContent content, long timestamp) {
         this.id = id;
         this.author = author;
         this.content = content;
@@ -46,18 +45,18 @@ public interface PostContent {
 package com.example.socialfeed.model;
 
 public class TextContent implements PostContent {
-    public static final int VIEW_TYPE = 0;
+    public static final ContentType<TextContent> TYPE = ContentTypeRegistry.TEXT;
     public final String text;
 
     public TextContent(String text) { this.text = text; }
-    @Override public int getViewType() { return VIEW_TYPE; }
+    @Override public int getViewType() { return TYPE.viewType; }
 }
 
 // ImageContent.java
 package com.example.socialfeed.model;
 
 public class ImageContent implements PostContent {
-    public static final int VIEW_TYPE = 1;
+    public static final ContentType<ImageContent> TYPE = ContentTypeRegistry.IMAGE;
     public final String imageURL;
     public final String caption;
 
@@ -65,14 +64,14 @@ public class ImageContent implements PostContent {
         this.imageURL = imageURL;
         this.caption = caption;
     }
-    @Override public int getViewType() { return VIEW_TYPE; }
+    @Override public int getViewType() { return TYPE.viewType; }
 }
 
 // VideoContent.java
 package com.example.socialfeed.model;
 
 public class VideoContent implements PostContent {
-    public static final int VIEW_TYPE = 2;
+    public static final ContentType<VideoContent> TYPE = ContentTypeRegistry.VIDEO;
     public final String thumbnailURL;
     public final String videoURL;
     public final String caption;
@@ -82,403 +81,7553 @@ public class VideoContent implements PostContent {
         this.videoURL = videoURL;
         this.caption = caption;
     }
-    @Override public int getViewType() { return VIEW_TYPE; }
+    @Override public int getViewType() { return TYPE.viewType; }
 }
 
+// ContentType.java
+package com.example.socialfeed.model;
 
-// --- Service Package ---
-
-// FeedService.java
-package com.example.socialfeed.service;
-
-import com.example.socialfeed.model.*;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-public class FeedService {
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+import java.io.IOException;
 
-    public interface FeedCallback {
-        void onSuccess(List<Post> posts);
-        void onError(Exception e);
+// One PostContent kind as registered with ContentTypeRegistry.
+public final class ContentType<C extends PostContent> {
+    public interface Codec<C extends PostContent> {
+        void write(C content, PostCodec.ContentOutput out) throws IOException;
+        C read(PostCodec.ContentInput in) throws IOException;
     }
 
-    public void fetchInitialPosts(FeedCallback callback) {
-        fetchPosts(callback, 1500);
+    public final String name;
+    public final Class<C> contentClass;
+    // Handed out densely in registration order; what RecyclerView sees.
+    public final int viewType;
+    // What PostCodec writes. Unlike viewType it must never change once pages are on disk.
+    public final int wireTag;
+    // Holders worth keeping in a RecyclerView pool: about one screen of this type plus a spare.
+    public final int maxRecycledViews;
+    private final Codec<C> codec;
+
+    ContentType(String name, Class<C> contentClass, int viewType, int wireTag, int maxRecycledViews, Codec<C> codec) {
+        this.name = name;
+        this.contentClass = contentClass;
+        this.viewType = viewType;
+        this.wireTag = wireTag;
+        this.maxRecycledViews = maxRecycledViews;
+        this.codec = codec;
     }
 
-    public void fetchMorePosts(FeedCallback callback) {
-        fetchPosts(callback, 2000);
+    void write(PostContent content, PostCodec.ContentOutput out) throws IOException {
+        codec.write(contentClass.cast(content), out);
     }
 
-    private void fetchPosts(FeedCallback callback, int delay) {
-         executor.execute(() -> {
-            try {
-                Thread.sleep(delay);
-                callback.onSuccess(generateMockPosts(20));
-            } catch (InterruptedException e) {
-                callback.onError(e);
-            }
-        });
+    C read(PostCodec.ContentInput in) throws IOException {
+        return codec.read(in);
     }
 
-    private List<Post> generateMockPosts(int count) {
-        List<Post> posts = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            User user = new User("user_" + i, "User " + i, "https://placehold.co/100x100/EFEFEF/333333?text=U" + i);
-            PostContent content;
-            switch ((int) (Math.random() * 3)) {
-                case 1:
-                    content = new ImageContent("https://placehold.co/600x400/CCCCCC/333333?text=Image", "An interesting image caption. #scenery");
-                    break;
-                case 2:
-                    content = new VideoContent("https://placehold.co/600x400/AAAAAA/FFFFFF?text=Video", "about:blank", "A cool video preview. #fun");
-                    break;
-                default:
-                    content = new TextContent("This is a sample text post. It can have a variable amount of text, which the UI needs to handle gracefully. Post number " + i + ".");
-                    break;
-            }
-            posts.add(new Post(UUID.randomUUID().toString(), user, content, new Date(System.currentTimeMillis() - (long)i * 3600 * 1000)));
-        }
-        return posts;
+    @Override
+    public String toString() {
+        return name + "(viewType=" + viewType + ", wireTag=" + wireTag + ")";
     }
 }
 
+// ContentTypeRegistry.java
+package com.example.socialfeed.model;
 
-// --- ViewModel Package ---
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-// FeedViewModel.java
-package com.example.socialfeed.viewmodel;
+// Post content kinds. Each registration takes the next view type, so lookups
+// are an index into an array that is copied on write and never searched.
+// The built-in kinds register first and keep view types 0..2.
+public final class ContentTypeRegistry {
+    // Wire tags are small so the decode table can stay a plain array.
+    public static final int MAX_WIRE_TAG = 255;
 
-import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
-import com.example.socialfeed.model.Post;
-import com.example.socialfeed.service.FeedService;
-import java.util.ArrayList;
-import java.util.List;
+    private static volatile ContentType<?>[] byViewType = new ContentType<?>[0];
+    private static volatile ContentType<?>[] byWireTag = new ContentType<?>[0];
 
-public class FeedViewModel extends ViewModel {
-    private final FeedService feedService = new FeedService();
+    public static final ContentType<TextContent> TEXT = register("text", TextContent.class, 0, 12, new ContentType.Codec<TextContent>() {
+        @Override
+        public void write(TextContent content, PostCodec.ContentOutput out) throws IOException {
+            out.writeString(content.text);
+        }
 
-    private final MutableLiveData<List<Post>> _posts = new MutableLiveData<>(new ArrayList<>());
-    public final LiveData<List<Post>> posts = _posts;
+        @Override
+        public TextContent read(PostCodec.ContentInput in) throws IOException {
+            return new TextContent(in.readString());
+        }
+    });
 
-    private final MutableLiveData<Boolean> _isLoading = new MutableLiveData<>(false);
-    public final LiveData<Boolean> isLoading = _isLoading;
+    public static final ContentType<ImageContent> IMAGE = register("image", ImageContent.class, 1, 6, new ContentType.Codec<ImageContent>() {
+        @Override
+        public void write(ImageContent content, PostCodec.ContentOutput out) throws IOException {
+            out.writeUrl(content.imageURL);
+            out.writeString(content.caption);
+        }
+
+        @Override
+        public ImageContent read(PostCodec.ContentInput in) throws IOException {
+            return new ImageContent(in.readUrl(), in.readPooledString());
+        }
+    });
 
-    private final MutableLiveData<Exception> _error = new MutableLiveData<>(null);
-    public final LiveData<Exception> error = _error;
+    public static final ContentType<VideoContent> VIDEO = register("video", VideoContent.class, 2, 4, new ContentType.Codec<VideoContent>() {
+        @Override
+        public void write(VideoContent content, PostCodec.ContentOutput out) throws IOException {
+            out.writeUrl(content.thumbnailURL);
+            out.writeUrl(content.videoURL);
+            out.writeString(content.caption);
+        }
 
-    private boolean isMoreDataAvailable = true;
+        @Override
+        public VideoContent read(PostCodec.ContentInput in) throws IOException {
+            return new VideoContent(in.readUrl(), in.readUrl(), in.readPooledString());
+        }
+    });
 
-    public void loadInitialPosts() {
-        if (Boolean.TRUE.equals(_isLoading.getValue())) return;
-        _isLoading.setValue(true);
+    private ContentTypeRegistry() {}
 
-        feedService.fetchInitialPosts(new FeedService.FeedCallback() {
-            @Override
-            public void onSuccess(List<Post> newPosts) {
-                _posts.setValue(newPosts);
-                isMoreDataAvailable = !newPosts.isEmpty();
-                _isLoading.setValue(false);
-            }
-            @Override
-            public void onError(Exception e) {
-                _error.setValue(e);
-                _isLoading.setValue(false);
-            }
-        });
+    // Registers a new kind under the next free view type. Content classes
+    // usually keep the result in a static TYPE field and return its viewType.
+    public static synchronized <C extends PostContent> ContentType<C> register(String name, Class<C> contentClass, int wireTag,
+                                                                             int maxRecycledViews, ContentType.Codec<C> codec) {
+        if (wireTag < 0 || wireTag > MAX_WIRE_TAG) throw new IllegalArgumentException("Wire tag out of range: " + wireTag);
+        if (maxRecycledViews < 0) throw new IllegalArgumentException("maxRecycledViews < 0");
+        ContentType<?>[] types = byViewType;
+        for (ContentType<?> type : types) {
+            if (type.contentClass == contentClass) throw new IllegalStateException(contentClass.getName() + " is already registered as " + type);
+            if (type.wireTag == wireTag) throw new IllegalStateException("Wire tag " + wireTag + " is already taken by " + type);
+        }
+        ContentType<C> type = new ContentType<>(name, contentClass, types.length, wireTag, maxRecycledViews, codec);
+        ContentType<?>[] tags = byWireTag;
+        if (wireTag >= tags.length) tags = Arrays.copyOf(tags, wireTag + 1);
+        else tags = tags.clone();
+        tags[wireTag] = type;
+        byWireTag = tags;
+        types = Arrays.copyOf(types, types.length + 1);
+        types[type.viewType] = type;
+        byViewType = types;
+        return type;
     }
 
-    public void loadMorePosts() {
-        if (Boolean.TRUE.equals(_isLoading.getValue()) || !isMoreDataAvailable) return;
-        _isLoading.setValue(true);
+    public static ContentType<?> forViewType(int viewType) {
+        ContentType<?>[] types = byViewType;
+        if (viewType < 0 || viewType >= types.length) throw new IllegalArgumentException("Unknown view type " + viewType);
+        return types[viewType];
+    }
 
-        feedService.fetchMorePosts(new FeedService.FeedCallback() {
-            @Override
-            public void onSuccess(List<Post> newPosts) {
-                if (newPosts.isEmpty()) {
-                    isMoreDataAvailable = false;
-                } else {
-                    List<Post> currentPosts = new ArrayList<>(_posts.getValue());
-                    currentPosts.addAll(newPosts);
-                    _posts.setValue(currentPosts);
-                }
-                _isLoading.setValue(false);
-            }
-            @Override
-            public void onError(Exception e) {
-                _error.setValue(e);
-                _isLoading.setValue(false);
-            }
-        });
+    // Null for tags nothing has registered.
+    public static ContentType<?> forWireTag(long wireTag) {
+        ContentType<?>[] tags = byWireTag;
+        return wireTag >= 0 && wireTag < tags.length ? tags[(int) wireTag] : null;
     }
-}
 
+    public static int viewTypeCount() {
+        return byViewType.length;
+    }
 
-// --- View Package (Activity, Adapter, ViewHolders) ---
+    // In view type order.
+    public static List<ContentType<?>> types() {
+        return Collections.unmodifiableList(Arrays.asList(byViewType));
+    }
+}
 
-// FeedActivity.java
-package com.example.socialfeed.view;
 
-import android.os.Bundle;
-import android.view.View;
-import android.widget.ProgressBar;
-import androidx.appcompat.app.AppCompatActivity;
-import androidx.lifecycle.ViewModelProvider;
-import androidx.recyclerview.widget.LinearLayoutManager;
-import androidx.recyclerview.widget.RecyclerView;
-import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
-import com.example.socialfeed.R;
-import com.example.socialfeed.viewmodel.FeedViewModel;
-import com.google.android.material.snackbar.Snackbar;
+// ChunkedPostList.java
+package com.example.socialfeed.model;
 
-public class FeedActivity extends AppCompatActivity {
-    private FeedViewModel viewModel;
-    private FeedAdapter feedAdapter;
-    private SwipeRefreshLayout swipeRefreshLayout;
-    private ProgressBar bottomProgressBar;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
 
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_feed);
+// Immutable feed list whose versions share fixed-size chunks. Appending a page
+// writes only the new posts; earlier versions never look past their own size,
+// so they stay valid. Appending to a list that was already extended forks it.
+public final class ChunkedPostList extends AbstractList<Post> implements RandomAccess {
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final ChunkedPostList EMPTY = new ChunkedPostList(new Storage(), 0);
 
-        viewModel = new ViewModelProvider(this).get(FeedViewModel.class);
+    private static final class Storage {
+        volatile Post[][] chunks = new Post[4][];
+        int size;
 
-        setupUI();
-        observeViewModel();
+        void append(Post post) {
+            int chunk = size >>> CHUNK_SHIFT;
+            Post[][] current = chunks;
+            if (chunk == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            if (current[chunk] == null) {
+                current[chunk] = new Post[CHUNK_SIZE];
+            }
+            current[chunk][size & CHUNK_MASK] = post;
+            chunks = current;
+            size++;
+        }
 
-        if (viewModel.posts.getValue() == null || viewModel.posts.getValue().isEmpty()) {
-            viewModel.loadInitialPosts();
+        Storage fork(int keep) {
+            Storage copy = new Storage();
+            int fullChunks = keep >>> CHUNK_SHIFT;
+            Post[][] source = chunks;
+            Post[][] chunks = Arrays.copyOf(source, Math.max(4, Integer.highestOneBit(fullChunks + 1) * 2));
+            Arrays.fill(chunks, fullChunks, chunks.length, null);
+            if ((keep & CHUNK_MASK) != 0) {
+                chunks[fullChunks] = Arrays.copyOf(source[fullChunks], CHUNK_SIZE);
+            }
+            copy.chunks = chunks;
+            copy.size = keep;
+            return copy;
         }
     }
 
-    private void setupUI() {
-        swipeRefreshLayout = findViewById(R.id.swipe_refresh_layout);
-        bottomProgressBar = findViewById(R.id.bottom_progress_bar);
-        RecyclerView recyclerView = findViewById(R.id.recycler_view_feed);
-        
-        feedAdapter = new FeedAdapter();
-        recyclerView.setAdapter(feedAdapter);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+    private final Storage storage;
+    private final int size;
 
-        swipeRefreshLayout.setOnRefreshListener(() -> viewModel.loadInitialPosts());
+    private ChunkedPostList(Storage storage, int size) {
+        this.storage = storage;
+        this.size = size;
+    }
 
-        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
-            @Override
-            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
-                if (layoutManager != null && layoutManager.findLastCompletelyVisibleItemPosition() == feedAdapter.getItemCount() - 1) {
-                    viewModel.loadMorePosts();
-                }
-            }
-        });
+    public static ChunkedPostList empty() {
+        return EMPTY;
     }
 
-    private void observeViewModel() {
-        viewModel.posts.observe(this, posts -> feedAdapter.submitList(posts));
+    public static ChunkedPostList of(Collection<? extends Post> posts) {
+        return EMPTY.appendAll(posts);
+    }
 
-        viewModel.isLoading.observe(this, isLoading -> {
-            if (!isLoading) {
-                swipeRefreshLayout.setRefreshing(false);
+    public ChunkedPostList appendAll(Collection<? extends Post> posts) {
+        if (posts.isEmpty()) return this;
+        synchronized (storage) {
+            Storage target;
+            if (size == 0) {
+                target = new Storage();
+            } else if (storage.size == size) {
+                target = storage;
+            } else {
+                target = storage.fork(size);
             }
-            boolean showBottomLoader = isLoading && feedAdapter.getItemCount() > 0;
-            bottomProgressBar.setVisibility(showBottomLoader ? View.VISIBLE : View.GONE);
-        });
+            for (Post post : posts) {
+                target.append(post);
+            }
+            return new ChunkedPostList(target, target.size);
+        }
+    }
 
-        viewModel.error.observe(this, error -> {
-            if (error != null) {
-                Snackbar.make(findViewById(android.R.id.content), "An error occurred", Snackbar.LENGTH_LONG).show();
+    // Copy with one post replaced. Only the chunk spine and the touched chunk
+    // are copied; every other chunk stays shared with this version.
+    public ChunkedPostList with(int index, Post post) {
+        Objects.checkIndex(index, size);
+        synchronized (storage) {
+            Storage target = storage.fork(size);
+            int chunk = index >>> CHUNK_SHIFT;
+            if (target.chunks[chunk] == storage.chunks[chunk]) {
+                target.chunks[chunk] = target.chunks[chunk].clone();
             }
-        });
+            target.chunks[chunk][index & CHUNK_MASK] = post;
+            return new ChunkedPostList(target, size);
+        }
+    }
+
+    // True if this list begins with every post of prefix, checked in O(1) through shared storage.
+    public boolean startsWith(ChunkedPostList prefix) {
+        return prefix.size == 0 || (prefix.storage == storage && prefix.size <= size);
+    }
+
+    @Override
+    public Post get(int index) {
+        Objects.checkIndex(index, size);
+        return storage.chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
     }
 }
 
-// FeedAdapter.java
-package com.example.socialfeed.view;
 
-import android.view.LayoutInflater;
-import android.view.ViewGroup;
-import androidx.annotation.NonNull;
-import androidx.recyclerview.widget.RecyclerView;
-import com.example.socialfeed.R;
-import com.example.socialfeed.model.*;
-import java.util.ArrayList;
-import java.util.List;
+// PostIdIndex.java
+package com.example.socialfeed.model;
 
-public class FeedAdapter extends RecyclerView.Adapter<BasePostViewHolder> {
-    private List<Post> posts = new ArrayList<>();
+import java.util.Arrays;
+import java.util.HashMap;
 
-    @Override
-    public int getItemViewType(int position) {
-        return posts.get(position).content.getViewType();
+// Maps post ids to feed positions. Canonical UUID ids are parsed into two
+// longs and kept in an open-addressing table of parallel primitive arrays:
+// 20 bytes per slot, about 27-53 bytes per entry between resizes, and
+// nothing for the GC to trace. A HashMap<String, Integer> costs a 32-byte
+// node, a 16-byte Integer and 5-11 bytes of table per entry (compressed
+// oops), and keeps the id strings alive. Other ids fall back to a HashMap.
+// Not thread-safe, lookups included: they share the parse scratch fields.
+// FeedViewModel only touches it on the main thread.
+public final class PostIdIndex {
+    private static final int MIN_CAPACITY = 64;
+
+    private long[] hiKeys;
+    private long[] loKeys;
+    // Position + 1, so a zero marks an empty slot without a fill pass.
+    private int[] values;
+    private int mask;
+    private int uuidCount;
+    private final HashMap<String, Integer> otherIds = new HashMap<>();
+
+    private long parsedHi;
+    private long parsedLo;
+
+    public PostIdIndex() {
+        allocate(MIN_CAPACITY);
     }
 
-    @NonNull
-    @Override
-    public BasePostViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
-        switch (viewType) {
-            case ImageContent.VIEW_TYPE:
-                return new ImagePostViewHolder(inflater.inflate(R.layout.item_post_image, parent, false));
-            case VideoContent.VIEW_TYPE:
-                return new VideoPostViewHolder(inflater.inflate(R.layout.item_post_video, parent, false));
-            default: // TextContent.VIEW_TYPE
-                return new TextPostViewHolder(inflater.inflate(R.layout.item_post_text, parent, false));
+    // Position of the post with this id, or -1.
+    public int get(String id) {
+        if (!parseUuid(id)) {
+            Integer position = otherIds.get(id);
+            return position == null ? -1 : position;
+        }
+        for (int slot = slotFor(parsedHi, parsedLo); ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+            if (value == 0) return -1;
+            if (hiKeys[slot] == parsedHi && loKeys[slot] == parsedLo) return value - 1;
         }
     }
 
-    @Override
-    public void onBindViewHolder(@NonNull BasePostViewHolder holder, int position) {
-        holder.bind(posts.get(position));
+    public boolean contains(String id) {
+        return get(id) >= 0;
     }
 
-    @Override
-    public int getItemCount() {
-        return posts.size();
+    // Returns the previous position, or -1 if the id is new.
+    public int put(String id, int position) {
+        if (position < 0) throw new IllegalArgumentException("position < 0");
+        if (!parseUuid(id)) {
+            Integer previous = otherIds.put(id, position);
+            return previous == null ? -1 : previous;
+        }
+        int previous = insert(parsedHi, parsedLo, position + 1);
+        if (previous == 0 && ++uuidCount > (mask + 1) - ((mask + 1) >>> 2)) {
+            grow();
+        }
+        return previous - 1;
     }
 
-    public void submitList(List<Post> newPosts) {
-        this.posts = newPosts;
-        notifyDataSetChanged(); // For simplicity. Use DiffUtil for better performance.
+    public int size() {
+        return uuidCount + otherIds.size();
     }
-}
 
-// BasePostViewHolder.java
-package com.example.socialfeed.view;
+    public void clear() {
+        if (mask + 1 > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(values, 0);
+        }
+        uuidCount = 0;
+        otherIds.clear();
+    }
 
-import android.text.format.DateUtils;
-import android.view.View;
-import android.widget.ImageView;
-import android.widget.TextView;
-import androidx.recyclerview.widget.RecyclerView;
-import com.bumptech.glide.Glide;
-import com.example.socialfeed.R;
-import com.example.socialfeed.model.Post;
+    private int insert(long hi, long lo, int value) {
+        for (int slot = slotFor(hi, lo); ; slot = (slot + 1) & mask) {
+            int existing = values[slot];
+            if (existing == 0) {
+                hiKeys[slot] = hi;
+                loKeys[slot] = lo;
+                values[slot] = value;
+                return 0;
+            }
+            if (hiKeys[slot] == hi && loKeys[slot] == lo) {
+                values[slot] = value;
+                return existing;
+            }
+        }
+    }
 
-public abstract class BasePostViewHolder extends RecyclerView.ViewHolder {
-    protected final ImageView avatarImageView;
-    protected final TextView usernameTextView;
-    protected final TextView timestampTextView;
+    private void grow() {
+        long[] oldHi = hiKeys;
+        long[] oldLo = loKeys;
+        int[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) insert(oldHi[i], oldLo[i], oldValues[i]);
+        }
+    }
 
-    public BasePostViewHolder(View itemView) {
-        super(itemView);
-        avatarImageView = itemView.findViewById(R.id.image_view_avatar);
-        usernameTextView = itemView.findViewById(R.id.text_view_username);
-        timestampTextView = itemView.findViewById(R.id.text_view_timestamp);
+    private void allocate(int capacity) {
+        hiKeys = new long[capacity];
+        loKeys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
     }
 
-    public void bind(Post post) {
-        usernameTextView.setText(post.author.username);
-        String timeAgo = DateUtils.getRelativeTimeSpanString(post.timestamp.getTime()).toString();
-        timestampTextView.setText(timeAgo);
+    private int slotFor(long hi, long lo) {
+        long h = (hi ^ Long.rotateLeft(lo, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
 
-        Glide.with(itemView.getContext())
-             .load(post.author.avatarURL)
-             .circleCrop()
-             .into(avatarImageView);
+    // Parses the 36-char form into parsedHi/parsedLo without allocating.
+    private boolean parseUuid(String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return false;
+        }
+        long hi = 0;
+        long lo = 0;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) continue;
+            int nibble = Character.digit(id.charAt(i), 16);
+            if (nibble < 0) return false;
+            if (digits++ < 16) {
+                hi = (hi << 4) | nibble;
+            } else {
+                lo = (lo << 4) | nibble;
+            }
+        }
+        parsedHi = hi;
+        parsedLo = lo;
+        return true;
     }
 }
 
-// TextPostViewHolder.java
-package com.example.socialfeed.view;
+// UserRegistry.java
+package com.example.socialfeed.model;
 
-import android.view.View;
-import android.widget.TextView;
-import com.example.socialfeed.R;
-import com.example.socialfeed.model.Post;
-import com.example.socialfeed.model.TextContent;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class TextPostViewHolder extends BasePostViewHolder {
-    private final TextView contentTextView;
+// Canonical User instances keyed by id. Values are weak, so authors no longer
+// referenced by any post can be collected; the table itself is bounded.
+public final class UserRegistry {
+    public static final int DEFAULT_MAX_USERS = 10_000;
+    private static final UserRegistry SHARED = new UserRegistry(DEFAULT_MAX_USERS);
 
-    public TextPostViewHolder(View itemView) {
-        super(itemView);
-        contentTextView = itemView.findViewById(R.id.text_view_content);
-    }
+    private final ConcurrentHashMap<String, UserRef> users = new ConcurrentHashMap<>();
+    private final ReferenceQueue<User> collected = new ReferenceQueue<>();
+    private final int maxUsers;
 
-    @Override
-    public void bind(Post post) {
-        super.bind(post);
-        if (post.content instanceof TextContent) {
-            contentTextView.setText(((TextContent) post.content).text);
+    private static final class UserRef extends WeakReference<User> {
+        final String id;
+
+        UserRef(User user, ReferenceQueue<User> queue) {
+            super(user, queue);
+            this.id = user.id;
         }
     }
-}
 
-// MediaPostViewHolder.java (A new base class for image and video)
-package com.example.socialfeed.view;
+    public UserRegistry(int maxUsers) {
+        this.maxUsers = maxUsers;
+    }
 
-import android.view.View;
-import android.widget.ImageView;
-import android.widget.TextView;
-import com.bumptech.glide.Glide;
-import com.example.socialfeed.R;
+    public static UserRegistry shared() {
+        return SHARED;
+    }
 
-public abstract class MediaPostViewHolder extends BasePostViewHolder {
-    protected final ImageView postImageView;
-    protected final TextView captionTextView;
+    public User intern(User user) {
+        purgeCollected();
+        UserRef ref = users.get(user.id);
+        User canonical = ref == null ? null : ref.get();
+        if (canonical != null && sameFields(canonical, user)) return canonical;
+        if (canonical == null && users.size() >= maxUsers) return user;
+        users.put(user.id, new UserRef(user, collected));
+        return user;
+    }
 
-    public MediaPostViewHolder(View itemView) {
-        super(itemView);
-        postImageView = itemView.findViewById(R.id.image_view_post);
-        captionTextView = itemView.findViewById(R.id.text_view_caption);
+    public int size() {
+        purgeCollected();
+        return users.size();
     }
 
-    protected void bindMedia(String imageUrl, String caption) {
-        captionTextView.setText(caption);
-        captionTextView.setVisibility(caption != null && !caption.isEmpty() ? View.VISIBLE : View.GONE);
+    private void purgeCollected() {
+        for (UserRef ref = (UserRef) collected.poll(); ref != null; ref = (UserRef) collected.poll()) {
+            users.remove(ref.id, ref);
+        }
+    }
 
-        Glide.with(itemView.getContext())
-             .load(imageUrl)
-             .into(postImageView);
+    private static boolean sameFields(User a, User b) {
+        return a.username.equals(b.username) && a.avatarURL.equals(b.avatarURL);
     }
 }
 
+// StringPool.java
+package com.example.socialfeed.model;
 
-// ImagePostViewHolder.java
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+// Shares one instance of strings that repeat across posts: media URLs, avatar
+// URLs and captions. Only whole strings are shared; URLs that differ after a
+// common prefix share nothing here, and only PostCodec pages split them.
+// Entries are weak, so strings no post uses any more are collected; once the
+// pool is full, new strings are returned as they are.
+public final class StringPool {
+    public static final int DEFAULT_MAX_STRINGS = 50_000;
+    private static final StringPool SHARED = new StringPool(DEFAULT_MAX_STRINGS);
+
+    private final WeakHashMap<String, WeakReference<String>> strings = new WeakHashMap<>();
+    private final int maxStrings;
+
+    public StringPool(int maxStrings) {
+        this.maxStrings = maxStrings;
+    }
+
+    public static StringPool shared() {
+        return SHARED;
+    }
+
+    public synchronized String intern(String value) {
+        if (value == null) return null;
+        WeakReference<String> ref = strings.get(value);
+        String canonical = ref == null ? null : ref.get();
+        if (canonical != null) return canonical;
+        if (strings.size() >= maxStrings) return value;
+        strings.put(value, new WeakReference<>(value));
+        return value;
+    }
+
+    public synchronized int size() {
+        return strings.size();
+    }
+}
+
+// PostCodec.java
+package com.example.socialfeed.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Versioned binary page format. Within a page every string and every User is
+// written once and then referenced by index, URLs are split into a shared
+// prefix and a suffix, timestamps are zigzag varint deltas and canonical UUID
+// ids take 16 bytes. Pages decode post by post, so a reader never needs the
+// whole page in memory.
+//
+//   page    := VERSION post* END
+//   post    := POST id varint(zigzag(timestamp - previous)) user content
+//   string  := varint(index << 1 | 1) | varint(length + 1 << 1) utf8-bytes | varint(0) for null
+//   url     := string(prefix) string(suffix) | string(null)
+//   user    := varint(index << 1 | 1) | varint(0) string string string
+//   content := varint(wireTag) (string | url)*, laid out by the ContentType's codec
+public final class PostCodec {
+    public static final int VERSION = 2;
+    // Version 1 wrote literal lengths as length << 1 and had no null.
+    private static final int VERSION_WITHOUT_NULL = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_POST = 1;
+    private static final int ID_UUID = 0;
+    private static final int ID_STRING = 1;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    private PostCodec() {}
+
+    // What a ContentType.Codec may write: strings and URLs, deduplicated within the page.
+    public interface ContentOutput {
+        void writeString(String value) throws IOException;
+        void writeUrl(String url) throws IOException;
+    }
+
+    public interface ContentInput {
+        String readString() throws IOException;
+        // Interned in StringPool; for values repeated across pages such as captions.
+        String readPooledString() throws IOException;
+        // Interned in StringPool like every decoded URL.
+        String readUrl() throws IOException;
+    }
+
+    public static byte[] encodePage(List<Post> posts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(posts.size() * 64);
+        try {
+            Writer writer = new Writer(bytes);
+            for (Post post : posts) writer.write(post);
+            writer.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<Post> decodePage(byte[] page) throws IOException {
+        Reader reader = new Reader(new ByteArrayInputStream(page), page.length);
+        List<Post> posts = new ArrayList<>();
+        for (Post post = reader.next(); post != null; post = reader.next()) {
+            posts.add(post);
+        }
+        return posts;
+    }
+
+    public static final class Writer implements ContentOutput {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<String, Integer> users = new HashMap<>();
+        private final List<User> userTable = new ArrayList<>();
+        private long previousTimestamp;
+        private boolean finished;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            writeVarLong(this.out, VERSION);
+        }
+
+        public void write(Post post) throws IOException {
+            if (finished) throw new IllegalStateException("Writer already finished");
+            writeVarLong(out, TAG_POST);
+            writeId(post.id);
+            long timestamp = post.timestamp;
+            writeVarLong(out, zigzag(timestamp - previousTimestamp));
+            previousTimestamp = timestamp;
+            writeUser(post.author);
+            writeContent(post.content);
+        }
+
+        public void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            writeVarLong(out, TAG_END);
+            out.flush();
+        }
+
+        private void writeId(String id) throws IOException {
+            if (isCanonicalUuid(id)) {
+                UUID uuid = UUID.fromString(id);
+                writeVarLong(out, ID_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            } else {
+                writeVarLong(out, ID_STRING);
+                writeString(id);
+            }
+        }
+
+        private void writeUser(User user) throws IOException {
+            Integer index = users.get(user.id);
+            if (index != null && sameUser(userTable.get(index), user)) {
+                writeVarLong(out, ((long) index << 1) | 1);
+                return;
+            }
+            writeVarLong(out, 0);
+            writeString(user.id);
+            writeString(user.username);
+            writeUrl(user.avatarURL);
+            users.put(user.id, userTable.size());
+            userTable.add(user);
+        }
+
+        private void writeContent(PostContent content) throws IOException {
+            ContentType<?> type = ContentTypeRegistry.forViewType(content.getViewType());
+            if (!type.contentClass.isInstance(content)) {
+                throw new IOException(content.getClass().getName() + " claims view type " + type);
+            }
+            writeVarLong(out, type.wireTag);
+            type.write(content, this);
+        }
+
+        @Override
+        public void writeUrl(String url) throws IOException {
+            if (url == null) {
+                writeString(null);
+                return;
+            }
+            int split = urlPrefixLength(url);
+            writeString(url.substring(0, split));
+            writeString(url.substring(split));
+        }
+
+        @Override
+        public void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(out, 0);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarLong(out, ((long) index << 1) | 1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, ((long) utf8.length + 1) << 1);
+            out.write(utf8);
+            strings.put(value, strings.size());
+        }
+    }
+
+    public static final class Reader implements ContentInput {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<User> users = new ArrayList<>();
+        // Upper bound on a string's length, so a corrupt length fails as an
+        // IOException instead of a huge or negative allocation.
+        private final int maxStringBytes;
+        private final boolean nullable;
+        private long previousTimestamp;
+        private boolean finished;
+
+        public Reader(InputStream in) throws IOException {
+            this(in, MAX_STRING_BYTES);
+        }
+
+        // For a page of known length: no string can be longer than the page.
+        public Reader(InputStream in, long length) throws IOException {
+            this.in = new DataInputStream(in);
+            this.maxStringBytes = (int) Math.min(length, MAX_STRING_BYTES);
+            long version = readVarLong(this.in);
+            if (version != VERSION && version != VERSION_WITHOUT_NULL) throw new IOException("Unsupported post codec version " + version);
+            this.nullable = version != VERSION_WITHOUT_NULL;
+        }
+
+        // Next post of the page, or null once the page has ended.
+        public Post next() throws IOException {
+            if (finished) return null;
+            long tag = readVarLong(in);
+            if (tag == TAG_END) {
+                finished = true;
+                return null;
+            }
+            if (tag != TAG_POST) throw new IOException("Corrupt page: unknown tag " + tag);
+            String id = readId();
+            long timestamp = previousTimestamp + unzigzag(readVarLong(in));
+            previousTimestamp = timestamp;
+            User author = readUser();
+            PostContent content = readContent();
+            return new Post(id, author, content, timestamp);
+        }
+
+        private String readId() throws IOException {
+            long kind = readVarLong(in);
+            if (kind == ID_UUID) return new UUID(in.readLong(), in.readLong()).toString();
+            if (kind == ID_STRING) return required(readString());
+            throw new IOException("Corrupt page: unknown id kind " + kind);
+        }
+
+        private User readUser() throws IOException {
+            long header = readVarLong(in);
+            if ((header & 1) != 0) return users.get(checkIndex(header >>> 1, users.size()));
+            User user = UserRegistry.shared().intern(new User(required(readString()), required(readString()), required(readUrl())));
+            users.add(user);
+            return user;
+        }
+
+        private PostContent readContent() throws IOException {
+            long wireTag = readVarLong(in);
+            ContentType<?> type = ContentTypeRegistry.forWireTag(wireTag);
+            if (type == null) throw new IOException("Corrupt page: unknown content tag " + wireTag);
+            return type.read(this);
+        }
+
+        @Override
+        public String readPooledString() throws IOException {
+            return StringPool.shared().intern(readString());
+        }
+
+        @Override
+        public String readUrl() throws IOException {
+            String prefix = readString();
+            if (prefix == null) return null;
+            String suffix = required(readString());
+            return StringPool.shared().intern(prefix.isEmpty() ? suffix : prefix + suffix);
+        }
+
+        @Override
+        public String readString() throws IOException {
+            long header = readVarLong(in);
+            if ((header & 1) != 0) return strings.get(checkIndex(header >>> 1, strings.size()));
+            long length = header >>> 1;
+            if (nullable) {
+                if (length == 0) return null;
+                length--;
+            }
+            byte[] utf8 = new byte[checkIndex(length, maxStringBytes + 1)];
+            in.readFully(utf8);
+            String value = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        // Ids, user fields and URL suffixes are never null.
+        private static String required(String value) throws IOException {
+            if (value == null) throw new IOException("Corrupt page: unexpected null");
+            return value;
+        }
+
+        private static int checkIndex(long index, int size) throws IOException {
+            if (index >= size) throw new IOException("Corrupt page: reference " + index + " out of range");
+            return (int) index;
+        }
+    }
+
+    // Length of the reusable part of a URL: up to the last '/' or '='.
+    static int urlPrefixLength(String url) {
+        return Math.max(url.lastIndexOf('/'), url.lastIndexOf('=')) + 1;
+    }
+
+    private static boolean sameUser(User a, User b) {
+        return a.username.equals(b.username) && a.avatarURL.equals(b.avatarURL);
+    }
+
+    private static boolean isCanonicalUuid(String id) {
+        if (id.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated varint");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt page: varint too long");
+    }
+}
+
+
+// --- Metrics Package ---
+
+// LatencyHistogram.java
+package com.example.socialfeed.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram in the style of HdrHistogram: each power of two is split
+// into 16 linear sub-buckets, so any recorded value is kept within ~6%.
+// Recording is lock-free and allocation-free.
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return new HistogramSnapshot(copy, total.get(), sum.get(), max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that maps to the bucket.
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
+
+// HistogramSnapshot.java
+package com.example.socialfeed.metrics;
+
+public final class HistogramSnapshot {
+    private final long[] counts;
+    public final long count;
+    public final long sum;
+    public final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100).
+    public long valueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(LatencyHistogram.highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + (long) mean() + " p50=" + valueAtPercentile(50)
+                + " p99=" + valueAtPercentile(99) + " max=" + max;
+    }
+}
+
+// MetricsSnapshot.java
+package com.example.socialfeed.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+public final class MetricsSnapshot {
+    public final long capturedAtMillis;
+    public final Map<String, Long> counters;
+    public final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long capturedAtMillis, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.capturedAtMillis = capturedAtMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+}
+
+// MetricsSink.java
+package com.example.socialfeed.metrics;
+
+public interface MetricsSink {
+    void publish(MetricsSnapshot snapshot);
+}
+
+// FeedMetrics.java
+package com.example.socialfeed.metrics;
+
+import com.example.socialfeed.model.ContentTypeRegistry;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hot-path instrumentation for the feed: fetch, executor queue wait, page merge
+// and bind. Latencies are in nanoseconds. Install NOOP to turn recording off.
+public final class FeedMetrics {
+    public static final FeedMetrics NOOP = new FeedMetrics(false);
+    private static volatile FeedMetrics current = new FeedMetrics(true);
+
+    private final boolean enabled;
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram mergeLatency = new LatencyHistogram();
+    private final LatencyHistogram pageSize = new LatencyHistogram();
+    // One per registered view type; grows when a content type registers later.
+    private volatile LatencyHistogram[] bindLatency = new LatencyHistogram[0];
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder binds = new LongAdder();
+
+    public FeedMetrics(boolean enabled) {
+        this.enabled = enabled;
+        bindHistograms(ContentTypeRegistry.viewTypeCount() - 1);
+    }
+
+    public static FeedMetrics get() {
+        return current;
+    }
+
+    public static void install(FeedMetrics metrics) {
+        current = metrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordFetch(long nanos, int posts) {
+        if (!enabled) return;
+        fetches.increment();
+        fetchLatency.record(nanos);
+        pageSize.record(posts);
+    }
+
+    public void recordQueueWait(long nanos) {
+        if (!enabled) return;
+        queueWait.record(nanos);
+    }
+
+    public void recordMerge(long nanos) {
+        if (!enabled) return;
+        mergeLatency.record(nanos);
+    }
+
+    public void recordBind(int viewType, long nanos) {
+        if (!enabled) return;
+        if (viewType < 0) return;
+        binds.increment();
+        LatencyHistogram[] histograms = bindLatency;
+        if (viewType >= histograms.length) histograms = bindHistograms(viewType);
+        histograms[viewType].record(nanos);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("fetch.count", fetches.sum());
+        counters.put("bind.count", binds.sum());
+        Map<String, HistogramSnapshot> histograms = new LinkedHashMap<>();
+        histograms.put("fetch.latency", fetchLatency.snapshot());
+        histograms.put("fetch.queueWait", queueWait.snapshot());
+        histograms.put("fetch.pageSize", pageSize.snapshot());
+        histograms.put("merge.latency", mergeLatency.snapshot());
+        LatencyHistogram[] bindHistograms = bindLatency;
+        for (int viewType = 0; viewType < bindHistograms.length; viewType++) {
+            HistogramSnapshot bind = bindHistograms[viewType].snapshot();
+            if (bind.count > 0) histograms.put("bind.latency." + viewType, bind);
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), counters, histograms);
+    }
+
+    public void exportTo(MetricsSink sink) {
+        sink.publish(snapshot());
+    }
+
+    // Histograms for view types up to at least maxViewType, copied on write.
+    private synchronized LatencyHistogram[] bindHistograms(int maxViewType) {
+        LatencyHistogram[] histograms = bindLatency;
+        if (maxViewType < histograms.length) return histograms;
+        int size = Math.max(maxViewType + 1, ContentTypeRegistry.viewTypeCount());
+        LatencyHistogram[] grown = Arrays.copyOf(histograms, size);
+        for (int i = histograms.length; i < size; i++) grown[i] = new LatencyHistogram();
+        bindLatency = grown;
+        return grown;
+    }
+
+    // Publishes a snapshot every period until the returned reporter is closed.
+    public Reporter exportPeriodically(MetricsSink sink, long period, TimeUnit unit) {
+        return new Reporter(this, sink, period, unit);
+    }
+
+    public static final class Reporter implements AutoCloseable {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "feed-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final ScheduledFuture<?> task;
+
+        Reporter(FeedMetrics metrics, MetricsSink sink, long period, TimeUnit unit) {
+            task = executor.scheduleAtFixedRate(() -> metrics.exportTo(sink), period, period, unit);
+        }
+
+        @Override
+        public void close() {
+            task.cancel(false);
+            executor.shutdown();
+        }
+    }
+}
+
+
+// --- Service Package ---
+
+// FeedCursor.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.Objects;
+
+// Position in the feed: newest first, ties broken by post id so pages never
+// overlap. An opaque cursor instead carries a token that only the FeedOrder
+// which handed it out can interpret; it has no position in time.
+public final class FeedCursor implements Comparable<FeedCursor> {
+    public final long timestamp;
+    public final String postId;
+    // Null for a time cursor.
+    public final String token;
+
+    public FeedCursor(long timestamp, String postId) {
+        this(timestamp, postId, null);
+    }
+
+    private FeedCursor(long timestamp, String postId, String token) {
+        this.timestamp = timestamp;
+        this.postId = postId;
+        this.token = token;
+    }
+
+    public static FeedCursor of(Post post) {
+        return new FeedCursor(post.timestamp, post.id);
+    }
+
+    public static FeedCursor opaque(String token) {
+        return new FeedCursor(0, "", token);
+    }
+
+    public boolean isOpaque() {
+        return token != null;
+    }
+
+    @Override
+    public int compareTo(FeedCursor other) {
+        if (isOpaque() || other.isOpaque()) throw new IllegalStateException("Opaque cursors have no order");
+        int byTime = Long.compare(other.timestamp, timestamp);
+        return byTime != 0 ? byTime : postId.compareTo(other.postId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FeedCursor)) return false;
+        FeedCursor other = (FeedCursor) o;
+        return timestamp == other.timestamp && postId.equals(other.postId) && Objects.equals(token, other.token);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.hashCode(timestamp) + postId.hashCode()) + Objects.hashCode(token);
+    }
+}
+
+// FeedPage.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.List;
+
+public final class FeedPage {
+    public final List<Post> posts;
+    public final FeedCursor nextCursor;
+    public final boolean hasMore;
+    // Served from FeedCache; a fresh page for the same request follows.
+    public final boolean fromCache;
+    // Set when the backend failed and saved posts stand in; nothing follows.
+    public final FeedException degradedBy;
+
+    public FeedPage(List<Post> posts, FeedCursor nextCursor, boolean hasMore) {
+        this(posts, nextCursor, hasMore, false);
+    }
+
+    public FeedPage(List<Post> posts, FeedCursor nextCursor, boolean hasMore, boolean fromCache) {
+        this(posts, nextCursor, hasMore, fromCache, null);
+    }
+
+    public FeedPage(List<Post> posts, FeedCursor nextCursor, boolean hasMore, boolean fromCache, FeedException degradedBy) {
+        this.posts = posts;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+        this.fromCache = fromCache;
+        this.degradedBy = degradedBy;
+    }
+
+    public FeedPage degraded(FeedException cause) {
+        return new FeedPage(posts, nextCursor, hasMore, false, cause);
+    }
+}
+
+// FeedOrder.java
+package com.example.socialfeed.service;
+
+// How FeedService turns its time-ordered PostStore into pages. The cursor an
+// order puts on a page comes back as `after` for the next one.
+public interface FeedOrder {
+    FeedOrder CHRONOLOGICAL = (store, after, limit) -> store.page(after, limit);
+
+    // Runs on fetch threads, possibly several at once. Throws only
+    // non-retryable failures, such as EXPIRED_CURSOR.
+    FeedPage page(PostStore store, FeedCursor after, int limit) throws FeedException;
+}
+
+// PostStore.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.Collection;
+
+// Backend post storage, ordered newest first by FeedCursor. Adding a post
+// with the cursor of an existing one replaces it.
+public interface PostStore {
+    void add(Post post);
+
+    default void addAll(Collection<Post> newPosts) {
+        for (Post post : newPosts) add(post);
+    }
+
+    int size();
+
+    FeedPage page(FeedCursor after, int limit);
+}
+
+// SkipListPostStore.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Time-ordered post index. Seeking to a cursor is O(log n); a page then walks `limit` entries.
+public class SkipListPostStore implements PostStore {
+    private final ConcurrentSkipListMap<FeedCursor, Post> posts = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void add(Post post) {
+        posts.put(FeedCursor.of(post), post);
+    }
+
+    @Override
+    public int size() {
+        return posts.size();
+    }
+
+    @Override
+    public FeedPage page(FeedCursor after, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+        ConcurrentNavigableMap<FeedCursor, Post> tail = after == null ? posts : posts.tailMap(after, false);
+        Iterator<Post> it = tail.values().iterator();
+        List<Post> page = new ArrayList<>(limit);
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        FeedCursor next = page.isEmpty() ? after : FeedCursor.of(page.get(page.size() - 1));
+        return new FeedPage(page, next, it.hasNext());
+    }
+
+    public void remove(Post post) {
+        posts.remove(FeedCursor.of(post), post);
+    }
+}
+
+// StringHeap.java
+package com.example.socialfeed.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Append-only UTF-8 strings in allocator-provided buffers, addressed by
+// segment << 32 | offset. intern() shares repeated strings through a
+// primitive hash table; append() is for strings that are unique anyway.
+// A null string is stored as NULL. Writes need external locking; get() is
+// safe alongside them.
+final class StringHeap {
+    // Offset 0 of the first segment is reserved, so no string lives there.
+    static final long NULL = 0;
+    private static final int SEGMENT_BYTES = 1 << 22;
+
+    private final ColumnarPostStore.Allocator allocator;
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    private ByteBuffer current;
+    private long bytes;
+
+    // Reference + 1 per slot, so zero marks an empty slot.
+    private long[] internRefs = new long[1024];
+    private int[] internHashes = new int[1024];
+    private int interned;
+
+    StringHeap(ColumnarPostStore.Allocator allocator) {
+        this.allocator = allocator;
+    }
+
+    long append(String value) {
+        if (value == null) return NULL;
+        return write(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    long intern(String value) {
+        if (value == null) return NULL;
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int hash = value.hashCode();
+        int mask = internRefs.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            long stored = internRefs[slot];
+            if (stored == 0) {
+                long ref = write(utf8);
+                internRefs[slot] = ref + 1;
+                internHashes[slot] = hash;
+                if (++interned > internRefs.length - (internRefs.length >>> 2)) growInternTable();
+                return ref;
+            }
+            if (internHashes[slot] == hash && equalsAt(stored - 1, utf8)) return stored - 1;
+        }
+    }
+
+    // Raw bytes rather than a string, such as an encoded page.
+    long appendBytes(byte[] value) {
+        return write(value);
+    }
+
+    String get(long ref) {
+        if (ref == NULL) return null;
+        return new String(getBytes(ref), StandardCharsets.UTF_8);
+    }
+
+    byte[] getBytes(long ref) {
+        ByteBuffer segment = segments[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        byte[] value = new byte[segment.getInt(offset)];
+        ByteBuffer view = segment.duplicate();
+        view.position(offset + 4);
+        view.get(value);
+        return value;
+    }
+
+    // Sign of the string at ref against utf8, in String.compareTo order,
+    // without decoding the stored bytes.
+    int compare(long ref, byte[] utf8) {
+        ByteBuffer segment = segments[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        int length = segment.getInt(offset);
+        int common = Math.min(length, utf8.length);
+        for (int i = 0; i < common; i++) {
+            int stored = segment.get(offset + 4 + i) & 0xFF;
+            int given = utf8[i] & 0xFF;
+            if (stored != given) return utf16Order(stored, given);
+        }
+        return Integer.compare(length, utf8.length);
+    }
+
+    long bytesUsed() {
+        return bytes;
+    }
+
+    // UTF-8 bytes sort by code point, and so does UTF-16 except that
+    // surrogate pairs (lead bytes 0xF0-0xF4) come before U+E000-U+FFFF (0xEE,
+    // 0xEF). Bytes that differ after equal lead bytes are in the same range.
+    private static int utf16Order(int stored, int given) {
+        if (stored >= 0xEE && given >= 0xEE && (stored >= 0xF0) != (given >= 0xF0)) return stored >= 0xF0 ? -1 : 1;
+        return stored < given ? -1 : 1;
+    }
+
+    private long write(byte[] utf8) {
+        int needed = 4 + utf8.length;
+        if (current == null || current.remaining() < needed) {
+            current = allocator.allocate(Math.max(SEGMENT_BYTES, needed + 4));
+            ByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[grown.length - 1] = current;
+            segments = grown;
+            if (grown.length == 1) {
+                current.putInt(0);
+                bytes += 4;
+            }
+        }
+        int offset = current.position();
+        current.putInt(utf8.length);
+        current.put(utf8);
+        bytes += needed;
+        return ((long) (segments.length - 1) << 32) | offset;
+    }
+
+    private boolean equalsAt(long ref, byte[] utf8) {
+        ByteBuffer segment = segments[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        if (segment.getInt(offset) != utf8.length) return false;
+        for (int i = 0; i < utf8.length; i++) {
+            if (segment.get(offset + 4 + i) != utf8[i]) return false;
+        }
+        return true;
+    }
+
+    private void growInternTable() {
+        long[] oldRefs = internRefs;
+        int[] oldHashes = internHashes;
+        internRefs = new long[oldRefs.length * 2];
+        internHashes = new int[oldRefs.length * 2];
+        int mask = internRefs.length - 1;
+        for (int i = 0; i < oldRefs.length; i++) {
+            if (oldRefs[i] == 0) continue;
+            int slot = mix(oldHashes[i]) & mask;
+            while (internRefs[slot] != 0) slot = (slot + 1) & mask;
+            internRefs[slot] = oldRefs[i];
+            internHashes[slot] = oldHashes[i];
+        }
+    }
+
+    private static int mix(int hash) {
+        return (hash * 0x9E3779B9) ^ (hash >>> 16);
+    }
+}
+
+// ColumnarPostStore.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Post store for long histories. Each post is a row in fixed-width columns
+// (timestamp, id, three string refs, author, view type: 45 bytes) kept in
+// direct or memory-mapped buffers, with text and URLs in a StringHeap. The
+// Java heap holds only the sort order (4 bytes per post), the author table
+// and the intern table, so GC work does not grow with the history.
+// Posts are built when a page element is first read. A replaced post leaves
+// its old row and strings behind; once such dead rows outnumber live ones,
+// the live rows are copied into fresh buffers and the old ones released.
+public class ColumnarPostStore implements PostStore {
+    private static final int SEGMENT_SHIFT = 14;
+    private static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+    private static final int ROW_MASK = SEGMENT_ROWS - 1;
+
+    // Column offsets within a segment; each column is SEGMENT_ROWS values wide.
+    private static final int TIMESTAMP = 0;
+    private static final int ID = TIMESTAMP + 8 * SEGMENT_ROWS;
+    private static final int PRIMARY = ID + 8 * SEGMENT_ROWS;
+    private static final int SECONDARY = PRIMARY + 8 * SEGMENT_ROWS;
+    private static final int TERTIARY = SECONDARY + 8 * SEGMENT_ROWS;
+    private static final int AUTHOR = TERTIARY + 8 * SEGMENT_ROWS;
+    private static final int VIEW_TYPE = AUTHOR + 4 * SEGMENT_ROWS;
+    private static final int SEGMENT_BYTES = VIEW_TYPE + SEGMENT_ROWS;
+    private static final String SCRATCH_PREFIX = "columns";
+    private static final String SCRATCH_SUFFIX = ".bin";
+
+    public interface Allocator {
+        ByteBuffer allocate(int bytes);
+    }
+
+    public static Allocator directBuffers() {
+        return ByteBuffer::allocateDirect;
+    }
+
+    // Maps scratch files in dir so the OS can page cold history out. The
+    // files are not reopened; FeedJournal is the durable copy. Each file is
+    // unlinked as soon as it is mapped, and files left behind by a process
+    // that died in between are swept when the allocator is created.
+    public static Allocator mappedFiles(File dir) {
+        File[] stale = dir.listFiles((parent, name) -> name.startsWith(SCRATCH_PREFIX) && name.endsWith(SCRATCH_SUFFIX));
+        if (stale != null) {
+            for (File file : stale) file.delete();
+        }
+        return bytes -> {
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+                File file = File.createTempFile(SCRATCH_PREFIX, SCRATCH_SUFFIX, dir);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                } finally {
+                    // The mapping outlives the directory entry.
+                    if (!file.delete()) file.deleteOnExit();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private final Allocator allocator;
+    private volatile StringHeap strings;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    private int rowCount;
+    // Rows no longer in order, left by replaced posts.
+    private int deadRows;
+    private volatile User[] authors = new User[16];
+    private int authorCount;
+    private final HashMap<String, Integer> authorRows = new HashMap<>();
+
+    // Row numbers ordered oldest first (reverse feed order), so the usual
+    // arrival of newer posts appends instead of shifting.
+    private int[] order = new int[1024];
+    private int size;
+
+    public ColumnarPostStore() {
+        this(directBuffers());
+    }
+
+    public ColumnarPostStore(Allocator allocator) {
+        this.allocator = allocator;
+        this.strings = new StringHeap(allocator);
+    }
+
+    @Override
+    public void add(Post post) {
+        lock.writeLock().lock();
+        try {
+            int row = writeRow(post);
+            byte[] id = utf8(post.id);
+            int at = countOlder(post.timestamp, id);
+            if (at < size && compare(order[at], post.timestamp, id) == 0) {
+                order[at] = row;
+                deadRows++;
+                compactIfMostlyDead();
+                return;
+            }
+            if (size == order.length) order = Arrays.copyOf(order, size * 2);
+            System.arraycopy(order, at, order, at + 1, size - at);
+            order[at] = row;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Sorts the batch once and merges it into the order in a single pass,
+    // rather than shifting the order array for each post of a newest-first page.
+    @Override
+    public void addAll(Collection<Post> newPosts) {
+        List<Post> batch = new ArrayList<>(newPosts);
+        batch.sort((a, b) -> FeedCursor.of(b).compareTo(FeedCursor.of(a)));
+        lock.writeLock().lock();
+        try {
+            int[] fresh = new int[batch.size()];
+            byte[][] freshIds = new byte[batch.size()][];
+            int freshCount = 0;
+            Post previous = null;
+            boolean previousFresh = false;
+            for (Post post : batch) {
+                int row = writeRow(post);
+                boolean repeated = previous != null && previous.timestamp == post.timestamp && previous.id.equals(post.id);
+                previous = post;
+                if (repeated && previousFresh) {
+                    // Same cursor twice in one batch: the later post wins.
+                    fresh[freshCount - 1] = row;
+                    deadRows++;
+                    continue;
+                }
+                byte[] id = utf8(post.id);
+                int at = countOlder(post.timestamp, id);
+                previousFresh = !(at < size && compare(order[at], post.timestamp, id) == 0);
+                if (previousFresh) {
+                    freshIds[freshCount] = id;
+                    fresh[freshCount++] = row;
+                } else {
+                    order[at] = row;
+                    deadRows++;
+                }
+            }
+            if (size + freshCount > order.length) {
+                order = Arrays.copyOf(order, Math.max(order.length * 2, size + freshCount));
+            }
+            // Merge from the back; both runs are oldest first.
+            int i = size - 1;
+            int j = freshCount - 1;
+            for (int k = size + freshCount - 1; j >= 0; k--) {
+                int row = fresh[j];
+                if (i >= 0 && compare(order[i], timestamp(row), freshIds[j]) < 0) {
+                    order[k] = order[i--];
+                } else {
+                    order[k] = row;
+                    j--;
+                }
+            }
+            size += freshCount;
+            compactIfMostlyDead();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public FeedPage page(FeedCursor after, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+        lock.readLock().lock();
+        try {
+            int remaining = after == null ? size : countOlder(after.timestamp, utf8(after.postId));
+            int[] rows = new int[Math.min(limit, remaining)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = order[remaining - 1 - i];
+            }
+            FeedCursor next = rows.length == 0 ? after : new FeedCursor(timestamp(rows[rows.length - 1]), id(rows[rows.length - 1]));
+            return new FeedPage(new RowList(rows), next, remaining > rows.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public interface RowVisitor {
+        // Return false to stop the scan.
+        boolean visit(Row row);
+    }
+
+    // Visits posts with fromMillis <= timestamp < toMillis, newest first,
+    // reading the columns in place. The Row is reused between calls.
+    public void scan(long fromMillis, long toMillis, RowVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            int first = firstAtOrAfter(fromMillis);
+            Row row = new Row();
+            for (int i = firstAtOrAfter(toMillis) - 1; i >= first; i--) {
+                row.row = order[i];
+                if (!visitor.visit(row)) return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) segments.length * SEGMENT_BYTES + strings.bytesUsed();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public final class Row {
+        private int row;
+
+        private Row() {}
+
+        public long timestamp() {
+            return ColumnarPostStore.this.timestamp(row);
+        }
+
+        public int viewType() {
+            return segment(row).get(VIEW_TYPE + (row & ROW_MASK)) & 0xFF;
+        }
+
+        public User author() {
+            return authors[segment(row).getInt(AUTHOR + 4 * (row & ROW_MASK))];
+        }
+
+        public String id() {
+            return ColumnarPostStore.this.id(row);
+        }
+
+        public Post toPost() {
+            return materialize(segments, strings, row);
+        }
+    }
+
+    private int writeRow(Post post) {
+        int row = rowCount;
+        if ((row >>> SEGMENT_SHIFT) == segments.length) {
+            ByteBuffer segment = allocator.allocate(SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+            ByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[grown.length - 1] = segment;
+            segments = grown;
+        }
+        ByteBuffer segment = segment(row);
+        int slot = row & ROW_MASK;
+        long primary = 0;
+        long secondary = 0;
+        long tertiary = 0;
+        PostContent content = post.content;
+        if (content instanceof TextContent) {
+            primary = strings.append(((TextContent) content).text);
+        } else if (content instanceof ImageContent) {
+            ImageContent image = (ImageContent) content;
+            primary = strings.intern(image.imageURL);
+            secondary = strings.intern(image.caption);
+        } else if (content instanceof VideoContent) {
+            VideoContent video = (VideoContent) content;
+            primary = strings.intern(video.thumbnailURL);
+            secondary = strings.intern(video.caption);
+            tertiary = strings.intern(video.videoURL);
+        } else {
+            // Registered plugin kinds have no columns of their own: the post
+            // is kept as a one-post PostCodec page, written by its type's codec.
+            if (content.getViewType() > 0xFF) throw new IllegalArgumentException("View type out of range: " + content.getViewType());
+            primary = strings.appendBytes(PostCodec.encodePage(Collections.singletonList(post)));
+        }
+        segment.putLong(TIMESTAMP + 8 * slot, post.timestamp);
+        segment.putLong(ID + 8 * slot, strings.append(post.id));
+        segment.putLong(PRIMARY + 8 * slot, primary);
+        segment.putLong(SECONDARY + 8 * slot, secondary);
+        segment.putLong(TERTIARY + 8 * slot, tertiary);
+        segment.putInt(AUTHOR + 4 * slot, authorRow(post.author));
+        segment.put(VIEW_TYPE + slot, (byte) content.getViewType());
+        rowCount++;
+        return row;
+    }
+
+    private int authorRow(User author) {
+        Integer known = authorRows.get(author.id);
+        if (known != null) {
+            authors[known] = author;
+            return known;
+        }
+        User[] table = authors;
+        if (authorCount == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[authorCount] = author;
+        authors = table;
+        authorRows.put(author.id, authorCount);
+        return authorCount++;
+    }
+
+    // Reads through the buffers given, so a page keeps working after compaction.
+    private Post materialize(ByteBuffer[] segments, StringHeap strings, int row) {
+        ByteBuffer segment = segments[row >>> SEGMENT_SHIFT];
+        int slot = row & ROW_MASK;
+        long primary = segment.getLong(PRIMARY + 8 * slot);
+        int viewType = segment.get(VIEW_TYPE + slot) & 0xFF;
+        PostContent content;
+        if (viewType == TextContent.TYPE.viewType) {
+            content = new TextContent(strings.get(primary));
+        } else if (viewType == ImageContent.TYPE.viewType) {
+            content = new ImageContent(strings.get(primary), strings.get(segment.getLong(SECONDARY + 8 * slot)));
+        } else if (viewType == VideoContent.TYPE.viewType) {
+            content = new VideoContent(strings.get(primary), strings.get(segment.getLong(TERTIARY + 8 * slot)), strings.get(segment.getLong(SECONDARY + 8 * slot)));
+        } else {
+            try {
+                content = PostCodec.decodePage(strings.getBytes(primary)).get(0).content;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        User author = authors[segment.getInt(AUTHOR + 4 * slot)];
+        return new Post(strings.get(segment.getLong(ID + 8 * slot)), author, content, segment.getLong(TIMESTAMP + 8 * slot));
+    }
+
+    private void compactIfMostlyDead() {
+        if (deadRows <= size) return;
+        ByteBuffer[] oldSegments = segments;
+        StringHeap oldStrings = strings;
+        segments = new ByteBuffer[0];
+        strings = new StringHeap(allocator);
+        rowCount = 0;
+        deadRows = 0;
+        for (int i = 0; i < size; i++) {
+            order[i] = writeRow(materialize(oldSegments, oldStrings, order[i]));
+        }
+    }
+
+    // Number of posts that come after (timestamp, id) in feed order.
+    private int countOlder(long timestamp, byte[] id) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(order[mid], timestamp, id) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int firstAtOrAfter(long timestamp) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamp(order[mid]) < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // FeedCursor order of a row against a cursor; the id bytes are only read on a timestamp tie.
+    private int compare(int row, long timestamp, byte[] id) {
+        int byTime = Long.compare(timestamp, timestamp(row));
+        return byTime != 0 ? byTime : strings.compare(segment(row).getLong(ID + 8 * (row & ROW_MASK)), id);
+    }
+
+    private long timestamp(int row) {
+        return segment(row).getLong(TIMESTAMP + 8 * (row & ROW_MASK));
+    }
+
+    private String id(int row) {
+        return strings.get(segment(row).getLong(ID + 8 * (row & ROW_MASK)));
+    }
+
+    private ByteBuffer segment(int row) {
+        return segments[row >>> SEGMENT_SHIFT];
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Page contents; each Post is built on first access and then kept.
+    private final class RowList extends AbstractList<Post> implements RandomAccess {
+        private final ByteBuffer[] segments = ColumnarPostStore.this.segments;
+        private final StringHeap strings = ColumnarPostStore.this.strings;
+        private final int[] rows;
+        private final Post[] posts;
+
+        RowList(int[] rows) {
+            this.rows = rows;
+            this.posts = new Post[rows.length];
+        }
+
+        @Override
+        public Post get(int index) {
+            Post post = posts[index];
+            if (post == null) {
+                post = materialize(segments, strings, rows[index]);
+                posts[index] = post;
+            }
+            return post;
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+}
+
+// FetchHandle.java
+package com.example.socialfeed.service;
+
+import java.util.concurrent.Future;
+
+public interface FetchHandle {
+    void cancel();
+    boolean isCancelled();
+    boolean isDone();
+
+    static FetchHandle of(Future<?> future) {
+        return new FetchHandle() {
+            @Override public void cancel() { future.cancel(true); }
+            @Override public boolean isCancelled() { return future.isCancelled(); }
+            @Override public boolean isDone() { return future.isDone(); }
+        };
+    }
+}
+
+// FetchScheduler.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.metrics.FeedMetrics;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs independent fetches in parallel, at most maxConcurrentFetches at a time.
+// Uses virtual threads when the JDK provides them, otherwise a small elastic pool.
+// Delays run on a timer thread, so waiting never holds a fetch thread or permit.
+public class FetchScheduler implements AutoCloseable {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "feed-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FetchScheduler(int maxConcurrentFetches) {
+        if (maxConcurrentFetches <= 0) throw new IllegalArgumentException("maxConcurrentFetches must be positive: " + maxConcurrentFetches);
+        this.permits = new Semaphore(maxConcurrentFetches);
+        this.executor = newExecutor(maxConcurrentFetches);
+    }
+
+    public FetchHandle submit(Runnable fetch) {
+        long submittedAt = System.nanoTime();
+        Future<?> future = executor.submit(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            FeedMetrics.get().recordQueueWait(System.nanoTime() - submittedAt);
+            try {
+                fetch.run();
+            } finally {
+                permits.release();
+            }
+        });
+        return FetchHandle.of(future);
+    }
+
+    public FetchHandle schedule(Runnable fetch, long delay, TimeUnit unit) {
+        DelayedHandle handle = new DelayedHandle();
+        handle.timerScheduled(timer.schedule(() -> {
+            if (!handle.isCancelled()) handle.fetchSubmitted(submit(fetch));
+        }, delay, unit));
+        return handle;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService newExecutor(int maxConcurrentFetches) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentFetches, maxConcurrentFetches,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new FetchThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    // Covers the timer phase, then the fetch phase, of a delayed fetch.
+    private static final class DelayedHandle implements FetchHandle {
+        private Future<?> timerTask;
+        private FetchHandle fetch;
+        private boolean cancelled;
+
+        synchronized void timerScheduled(Future<?> task) {
+            timerTask = task;
+            if (cancelled) task.cancel(false);
+        }
+
+        synchronized void fetchSubmitted(FetchHandle handle) {
+            fetch = handle;
+            if (cancelled) handle.cancel();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            if (timerTask != null) timerTask.cancel(false);
+            if (fetch != null) fetch.cancel();
+        }
+
+        @Override public synchronized boolean isCancelled() { return cancelled; }
+        @Override public synchronized boolean isDone() { return cancelled || (fetch != null && fetch.isDone()); }
+    }
+
+    private static final class FetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "feed-fetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
+
+// FetchCoalescer.java
+package com.example.socialfeed.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Single-flight for page requests. Callers asking for the same cursor and
+// limit while a fetch is running share it, and a fresh page is remembered
+// for a short while so repeated scroll triggers never reach the backend.
+// The shared fetch is cancelled only when every caller has cancelled.
+final class FetchCoalescer {
+    interface Starter {
+        FetchHandle start(FeedService.FeedCallback sharedCallback);
+    }
+
+    private final long memoNanos;
+    private final Map<Key, Flight> flights = new HashMap<>();
+    private final Map<Key, Memo> memos = new HashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    FetchCoalescer(long memoMillis) {
+        this.memoNanos = TimeUnit.MILLISECONDS.toNanos(memoMillis);
+    }
+
+    FetchHandle fetch(FeedCursor after, int limit, FeedService.FeedCallback callback,
+                      Starter starter, Function<Runnable, FetchHandle> async) {
+        Key key = new Key(after, limit);
+        synchronized (this) {
+            long now = System.nanoTime();
+            memos.values().removeIf(memo -> memo.expiresAt - now <= 0);
+            Memo memo = memos.get(key);
+            if (memo != null) {
+                coalesced.increment();
+                FeedPage page = memo.page;
+                return async.apply(() -> callback.onSuccess(page));
+            }
+            Flight flight = flights.get(key);
+            boolean first = flight == null;
+            if (first) {
+                flight = new Flight(key);
+                flights.put(key, flight);
+            } else {
+                coalesced.increment();
+            }
+            Waiter waiter = new Waiter(flight, callback);
+            flight.waiters.add(waiter);
+            // After the waiter is in place: a fetch may complete before start returns.
+            if (first) flight.handle = starter.start(flight);
+            return waiter;
+        }
+    }
+
+    long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    private static final class Key {
+        final FeedCursor after;
+        final int limit;
+
+        Key(FeedCursor after, int limit) {
+            this.after = after;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return limit == other.limit && Objects.equals(after, other.after);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(after) + limit;
+        }
+    }
+
+    private static final class Memo {
+        final FeedPage page;
+        final long expiresAt;
+
+        Memo(FeedPage page, long expiresAt) {
+            this.page = page;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Flight implements FeedService.FeedCallback {
+        final Key key;
+        final List<Waiter> waiters = new ArrayList<>();
+        FetchHandle handle;
+        volatile boolean done;
+
+        Flight(Key key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onSuccess(FeedPage page) {
+            List<Waiter> targets;
+            synchronized (FetchCoalescer.this) {
+                done = true;
+                flights.remove(key, this);
+                // A fallback page stands in for a failure; the next request should retry.
+                if (page.degradedBy == null) memos.put(key, new Memo(page, System.nanoTime() + memoNanos));
+                targets = new ArrayList<>(waiters);
+            }
+            for (Waiter waiter : targets) {
+                if (!waiter.cancelled) waiter.callback.onSuccess(page);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            List<Waiter> targets;
+            synchronized (FetchCoalescer.this) {
+                done = true;
+                flights.remove(key, this);
+                targets = new ArrayList<>(waiters);
+            }
+            for (Waiter waiter : targets) {
+                if (!waiter.cancelled) waiter.callback.onError(e);
+            }
+        }
+
+        // Caller holds the coalescer lock.
+        void detached() {
+            if (done) return;
+            for (Waiter waiter : waiters) {
+                if (!waiter.cancelled) return;
+            }
+            flights.remove(key, this);
+            handle.cancel();
+        }
+    }
+
+    private final class Waiter implements FetchHandle {
+        final Flight flight;
+        final FeedService.FeedCallback callback;
+        volatile boolean cancelled;
+
+        Waiter(Flight flight, FeedService.FeedCallback callback) {
+            this.flight = flight;
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (FetchCoalescer.this) {
+                if (cancelled) return;
+                cancelled = true;
+                flight.detached();
+            }
+        }
+
+        @Override public boolean isCancelled() { return cancelled; }
+        @Override public boolean isDone() { return cancelled || flight.done; }
+    }
+}
+
+// FeedException.java
+package com.example.socialfeed.service;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+// Why a fetch failed, in terms the UI can act on.
+public class FeedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        // No page within the deadline, retries included.
+        TIMEOUT,
+        // The backend failed the request.
+        BACKEND,
+        // Not sent: the circuit breaker is open after repeated failures.
+        CIRCUIT_OPEN,
+        // The fetching thread was interrupted.
+        INTERRUPTED,
+        // The cursor names paging state the backend no longer holds; paging
+        // has to start again from the first page.
+        EXPIRED_CURSOR
+    }
+
+    public final Kind kind;
+    // How long to wait before asking again; 0 when there is no reason to wait.
+    public final long retryAfterMillis;
+
+    public FeedException(Kind kind, String message, Throwable cause, long retryAfterMillis) {
+        super(message, cause);
+        this.kind = kind;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public boolean isRetryable() {
+        return kind == Kind.TIMEOUT || kind == Kind.BACKEND;
+    }
+
+    public FeedException withRetryAfter(long millis) {
+        return new FeedException(kind, getMessage(), getCause(), millis);
+    }
+
+    public static FeedException from(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof FeedException) return (FeedException) cause;
+        if (cause instanceof TimeoutException) return new FeedException(Kind.TIMEOUT, "Feed request timed out", cause, 0);
+        if (cause instanceof InterruptedException) return new FeedException(Kind.INTERRUPTED, "Feed request interrupted", cause, 0);
+        return new FeedException(Kind.BACKEND, "Feed request failed: " + cause, cause, 0);
+    }
+}
+
+// AdaptivePageSizer.java
+package com.example.socialfeed.service;
+
+// AIMD page size. While pages come back within the target latency and a
+// bigger page still raises throughput (posts/s), the size grows by a few
+// posts; a slow page or a failure halves it. A browning-out backend gets
+// small requests it can still answer, a healthy one fewer round trips.
+public class AdaptivePageSizer {
+    public static final int DEFAULT_MIN_PAGE_SIZE = 5;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 50;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2500;
+    private static final int INCREASE = 5;
+    private static final double DECREASE = 0.5;
+    private static final double SMOOTHING = 0.3;
+    // A page may lose this much throughput to noise and still count as no worse.
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetLatencyNanos;
+    private int pageSize;
+    private double postsPerSecond;
+
+    public AdaptivePageSizer() {
+        this(FeedService.DEFAULT_PAGE_SIZE, DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_TARGET_LATENCY_MILLIS);
+    }
+
+    public AdaptivePageSizer(int initialPageSize, int minPageSize, int maxPageSize, long targetLatencyMillis) {
+        if (minPageSize <= 0 || maxPageSize < minPageSize || initialPageSize < minPageSize || initialPageSize > maxPageSize) {
+            throw new IllegalArgumentException("Invalid page sizes: " + initialPageSize + " in [" + minPageSize + ", " + maxPageSize + "]");
+        }
+        if (targetLatencyMillis <= 0) throw new IllegalArgumentException("targetLatencyMillis must be positive: " + targetLatencyMillis);
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000;
+        this.pageSize = initialPageSize;
+    }
+
+    public synchronized int pageSize() {
+        return pageSize;
+    }
+
+    // Smoothed posts per second over successful fetches.
+    public synchronized double postsPerSecond() {
+        return postsPerSecond;
+    }
+
+    public synchronized void onSuccess(long latencyNanos, int posts) {
+        double throughput = posts * NANOS_PER_SECOND / Math.max(1, latencyNanos);
+        boolean throughputHeld = postsPerSecond == 0 || throughput >= postsPerSecond * THROUGHPUT_TOLERANCE;
+        postsPerSecond = postsPerSecond == 0 ? throughput : postsPerSecond + SMOOTHING * (throughput - postsPerSecond);
+        if (latencyNanos > targetLatencyNanos) {
+            decrease();
+        } else if (throughputHeld) {
+            pageSize = Math.min(maxPageSize, pageSize + INCREASE);
+        }
+    }
+
+    // Timeouts and backend errors; cancelled fetches say nothing about load.
+    public synchronized void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        pageSize = Math.max(minPageSize, (int) (pageSize * DECREASE));
+    }
+}
+
+// CircuitBreaker.java
+package com.example.socialfeed.service;
+
+import java.util.function.LongSupplier;
+
+// Stops sending requests to a backend that keeps failing. After
+// failureThreshold consecutive failures it opens; once the open period has
+// passed a single probe goes through. Success closes it, failure opens it
+// again for twice as long, up to maxOpenMillis.
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 5_000;
+    public static final long DEFAULT_MAX_OPEN_MILLIS = 60_000;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final LongSupplier clockMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long currentOpenMillis;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_MAX_OPEN_MILLIS, System::currentTimeMillis);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis, LongSupplier clockMillis) {
+        if (failureThreshold <= 0 || openMillis <= 0 || maxOpenMillis < openMillis) {
+            throw new IllegalArgumentException("Invalid breaker settings: " + failureThreshold + ", " + openMillis + ", " + maxOpenMillis);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.clockMillis = clockMillis;
+        this.currentOpenMillis = openMillis;
+    }
+
+    // True if a request may be sent now; the caller must then report its outcome.
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clockMillis.getAsLong() < openUntil) return false;
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) return false;
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        currentOpenMillis = openMillis;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            currentOpenMillis = Math.min(maxOpenMillis, currentOpenMillis * 2);
+            open();
+        } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    // A request that was let through but cancelled; in HALF_OPEN the next one probes instead.
+    public synchronized void onCancelled() {
+        probeInFlight = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    // Time left until the next probe may go out; 0 unless open.
+    public synchronized long retryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - clockMillis.getAsLong()) : 0;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntil = clockMillis.getAsLong() + currentOpenMillis;
+    }
+}
+
+// FeedService.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.engagement.EngagementDelta;
+import com.example.socialfeed.metrics.FeedMetrics;
+import com.example.socialfeed.model.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FeedService implements AutoCloseable {
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    public static final long COALESCED_PAGE_TTL_MILLIS = 2000;
+    // For the whole fetch, retries and backoff included, counted from the first attempt.
+    public static final long FETCH_DEADLINE_MILLIS = 10000;
+    public static final int MAX_FETCH_ATTEMPTS = 3;
+    private static final long RETRY_BASE_MILLIS = 250;
+    private static final long RETRY_MAX_MILLIS = 4000;
+    private static final int MOCK_FEED_SIZE = 1000;
+
+    private final FetchScheduler scheduler;
+    private final FetchCoalescer coalescer = new FetchCoalescer(COALESCED_PAGE_TTL_MILLIS);
+    private final AdaptivePageSizer pageSizer = new AdaptivePageSizer();
+    private final CircuitBreaker breaker = new CircuitBreaker();
+    private final Set<CompletableFuture<FeedPage>> pending = ConcurrentHashMap.newKeySet();
+    private final PostStore store;
+    private volatile FeedOrder order = FeedOrder.CHRONOLOGICAL;
+    private MockPostStream newPosts;
+    private final ConcurrentHashMap<String, LongAdder> submittedLikes = new ConcurrentHashMap<>();
+
+    public interface FeedCallback {
+        void onSuccess(FeedPage page);
+        void onError(Exception e);
+    }
+
+    public FeedService() {
+        this(DEFAULT_MAX_CONCURRENT_FETCHES);
+    }
+
+    public FeedService(int maxConcurrentFetches) {
+        this(maxConcurrentFetches, new SkipListPostStore());
+    }
+
+    // A ColumnarPostStore keeps long histories off the Java heap.
+    public FeedService(int maxConcurrentFetches, PostStore store) {
+        scheduler = new FetchScheduler(maxConcurrentFetches);
+        this.store = store;
+        store.addAll(generateMockPosts(MOCK_FEED_SIZE));
+    }
+
+    // Both take the page size AdaptivePageSizer currently allows.
+    public FetchHandle fetchInitialPosts(FeedCallback callback) {
+        return fetchPage(null, pageSizer.pageSize(), callback);
+    }
+
+    public FetchHandle fetchMorePosts(FeedCursor after, FeedCallback callback) {
+        return fetchPage(after, pageSizer.pageSize(), callback);
+    }
+
+    // Identical requests in flight, or answered within the last
+    // COALESCED_PAGE_TTL_MILLIS, share one backend fetch. Failures reach the
+    // callback as a FeedException, after retries and any fallback page.
+    public FetchHandle fetchPage(FeedCursor after, int limit, FeedCallback callback) {
+        return coalescer.fetch(after, limit, callback,
+                shared -> deliver(fetchWithRetries(after, limit), shared), this::runAsync);
+    }
+
+    // Future view of fetchPage: it completes with the backend's page, or a
+    // degraded fallback, never with a fromCache preview that a fresh page
+    // would follow. Cancelling it cancels this caller's share of the fetch.
+    public CompletableFuture<FeedPage> fetchPageAsync(FeedCursor after, int limit) {
+        CompletableFuture<FeedPage> result = new CompletableFuture<>();
+        FetchHandle handle = fetchPage(after, limit, new FeedCallback() {
+            @Override
+            public void onSuccess(FeedPage page) {
+                if (!page.fromCache) result.complete(page);
+            }
+            @Override
+            public void onError(Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((page, error) -> {
+            if (error != null) handle.cancel();
+        });
+        return result;
+    }
+
+    // Fails with FeedException(TIMEOUT), and cancels the fetch, once the deadline passes.
+    public CompletableFuture<FeedPage> fetchPageAsync(FeedCursor after, int limit, long timeout, TimeUnit unit) {
+        CompletableFuture<FeedPage> fetch = fetchPageAsync(after, limit).orTimeout(timeout, unit);
+        CompletableFuture<FeedPage> result = new CompletableFuture<>();
+        fetch.whenComplete((page, error) -> {
+            if (error == null) {
+                result.complete(page);
+            } else if (error instanceof CancellationException) {
+                result.cancel(false);
+            } else {
+                result.completeExceptionally(FeedException.from(error));
+            }
+        });
+        result.whenComplete((page, error) -> {
+            if (error != null) fetch.cancel(false);
+        });
+        return result;
+    }
+
+    // Pages from the top of the feed, fetched only as the subscriber requests them.
+    public Flow.Publisher<FeedPage> pages(int pageSize) {
+        return new FeedPagePublisher(this, pageSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public Flow.Publisher<FeedPage> pages(int pageSize, long timeoutPerPage, TimeUnit unit) {
+        return new FeedPagePublisher(this, pageSize, timeoutPerPage, unit);
+    }
+
+    // Page requests served by another caller's fetch or a recent result.
+    public long coalescedFetchCount() {
+        return coalescer.coalescedCount();
+    }
+
+    public int currentPageSize() {
+        return pageSizer.pageSize();
+    }
+
+    // Applies from the next backend fetch; set it before the first one.
+    public void setOrder(FeedOrder order) {
+        this.order = order;
+    }
+
+    public FeedOrder order() {
+        return order;
+    }
+
+    public CircuitBreaker.State circuitState() {
+        return breaker.state();
+    }
+
+    // Stand-in for POST /api/feed/posts/{id}/like, batched.
+    public void submitEngagement(List<EngagementDelta> deltas) {
+        for (EngagementDelta delta : deltas) {
+            submittedLikes.computeIfAbsent(delta.postId, id -> new LongAdder()).add(delta.likes);
+        }
+    }
+
+    // Live stream of posts published after the feed was loaded, oldest first.
+    public synchronized Flow.Publisher<Post> newPosts() {
+        if (newPosts == null) newPosts = new MockPostStream(store::add);
+        return newPosts;
+    }
+
+    @Override
+    public void close() {
+        scheduler.close();
+        for (CompletableFuture<FeedPage> fetch : pending) fetch.cancel(false);
+        synchronized (this) {
+            if (newPosts != null) newPosts.close();
+        }
+    }
+
+    protected FetchHandle runAsync(Runnable task) {
+        return scheduler.submit(task);
+    }
+
+    // Backend read behind every fetch; runs on a fetch thread.
+    protected FeedPage loadPage(FeedCursor after, int limit) throws FeedException {
+        return order.page(store, after, limit);
+    }
+
+    // Runs once per backend fetch, before the page fans out to its callers.
+    protected void onPageLoaded(FeedCursor after, FeedPage page) {
+    }
+
+    // Locally saved posts for a request the backend could not answer, or null.
+    protected FeedPage fallbackPage(FeedCursor after, int limit) {
+        return null;
+    }
+
+    // Up to MAX_FETCH_ATTEMPTS tries, spaced by jittered exponential backoff,
+    // all within FETCH_DEADLINE_MILLIS: each attempt gets the time left, and
+    // no retry is scheduled that could not start before the deadline. Nothing
+    // is sent while the breaker is open. A final failure falls back to
+    // fallbackPage when it has posts.
+    private CompletableFuture<FeedPage> fetchWithRetries(FeedCursor after, int limit) {
+        CompletableFuture<FeedPage> result = new CompletableFuture<>();
+        AtomicReference<FetchHandle> current = new AtomicReference<>();
+        result.whenComplete((page, error) -> {
+            FetchHandle handle = current.get();
+            if (error != null && handle != null) handle.cancel();
+        });
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FETCH_DEADLINE_MILLIS);
+        attempt(after, limit, 1, deadline, result, current);
+        return result;
+    }
+
+    private void attempt(FeedCursor after, int limit, int attempt, long deadline, CompletableFuture<FeedPage> result,
+                         AtomicReference<FetchHandle> current) {
+        if (result.isDone()) return;
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+            fail(after, limit, new FeedException(FeedException.Kind.TIMEOUT, "Feed request timed out", null, 0), result, current);
+            return;
+        }
+        if (!breaker.tryAcquire()) {
+            long retryAfter = breaker.retryAfterMillis();
+            fail(after, limit, new FeedException(FeedException.Kind.CIRCUIT_OPEN, "Feed backend unavailable", null, retryAfter), result, current);
+            return;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<FeedPage> fetch = fetchPosts(after, limit, after == null ? 1500 : 2000)
+                .orTimeout(remainingMillis, TimeUnit.MILLISECONDS);
+        current.set(FetchHandle.of(fetch));
+        if (result.isDone()) fetch.cancel(false);
+        fetch.whenComplete((page, error) -> {
+            if (error == null) {
+                breaker.onSuccess();
+                pageSizer.onSuccess(System.nanoTime() - start, page.posts.size());
+                result.complete(page);
+                return;
+            }
+            if (fetch.isCancelled()) {
+                breaker.onCancelled();
+                result.cancel(false);
+                return;
+            }
+            FeedException failure = FeedException.from(error);
+            if (failure.kind == FeedException.Kind.INTERRUPTED) {
+                breaker.onCancelled();
+                result.completeExceptionally(failure);
+                return;
+            }
+            if (failure.kind == FeedException.Kind.EXPIRED_CURSOR) {
+                // The backend answered; the request itself is stale.
+                breaker.onSuccess();
+                result.completeExceptionally(failure);
+                return;
+            }
+            breaker.onFailure();
+            pageSizer.onFailure();
+            long backoff = backoffMillis(attempt);
+            if (!failure.isRetryable() || attempt >= MAX_FETCH_ATTEMPTS
+                    || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff) >= deadline) {
+                fail(after, limit, failure.withRetryAfter(Math.max(breaker.retryAfterMillis(), retryCeilingMillis(attempt))), result, current);
+                return;
+            }
+            try {
+                current.set(scheduler.schedule(() -> attempt(after, limit, attempt + 1, deadline, result, current),
+                        backoff, TimeUnit.MILLISECONDS));
+            } catch (RejectedExecutionException closed) {
+                result.cancel(false);
+                return;
+            }
+            if (result.isDone()) current.get().cancel();
+        });
+    }
+
+    // On a fetch thread: the fallback may read from disk, and the result must
+    // not complete before fetchWithRetries has returned it.
+    private void fail(FeedCursor after, int limit, FeedException failure, CompletableFuture<FeedPage> result,
+                      AtomicReference<FetchHandle> current) {
+        try {
+            current.set(runAsync(() -> {
+                if (result.isDone()) return;
+                FeedPage fallback;
+                try {
+                    fallback = fallbackPage(after, limit);
+                } catch (RuntimeException e) {
+                    fallback = null;
+                }
+                if (fallback != null && !fallback.posts.isEmpty()) {
+                    result.complete(fallback.degraded(failure));
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            }));
+        } catch (RejectedExecutionException closed) {
+            result.cancel(false);
+        }
+    }
+
+    // Half the ceiling plus a random share of the other half, so clients that
+    // failed together do not retry together and no retry comes back at once.
+    private static long backoffMillis(int attempt) {
+        long ceiling = retryCeilingMillis(attempt);
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private static long retryCeilingMillis(int attempt) {
+        return Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt - 1, 16));
+    }
+
+    // The simulated network latency is a timer, not a sleeping fetch thread.
+    private CompletableFuture<FeedPage> fetchPosts(FeedCursor after, int limit, int delayMillis) {
+        CompletableFuture<FeedPage> result = new CompletableFuture<>();
+        long start = System.nanoTime();
+        FetchHandle handle = scheduler.schedule(() -> {
+            if (result.isDone()) return;
+            try {
+                FeedPage page = loadPage(after, limit);
+                FeedMetrics.get().recordFetch(System.nanoTime() - start, page.posts.size());
+                onPageLoaded(after, page);
+                result.complete(page);
+            } catch (RuntimeException | FeedException e) {
+                result.completeExceptionally(e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        pending.add(result);
+        result.whenComplete((page, error) -> {
+            pending.remove(result);
+            if (error != null) handle.cancel();
+        });
+        return result;
+    }
+
+    // Cancellation, by cancel() or close(), is never reported to the callback.
+    private static FetchHandle deliver(CompletableFuture<FeedPage> future, FeedCallback callback) {
+        future.whenComplete((page, error) -> {
+            if (error == null) {
+                callback.onSuccess(page);
+            } else if (!(error instanceof CancellationException)) {
+                callback.onError(FeedException.from(error));
+            }
+        });
+        return FetchHandle.of(future);
+    }
+
+    // Relative weights of text, image and video posts in generated feeds.
+    public enum ContentMix {
+        TEXT_ONLY(1, 0, 0),
+        UNIFORM(1, 1, 1),
+        MEDIA_HEAVY(1, 2, 2);
+
+        private final int text;
+        private final int image;
+        private final int video;
+
+        ContentMix(int text, int image, int video) {
+            this.text = text;
+            this.image = image;
+            this.video = video;
+        }
+
+        ContentType<?> pick(double random) {
+            double roll = random * (text + image + video);
+            if (roll < text) return TextContent.TYPE;
+            return roll < text + image ? ImageContent.TYPE : VideoContent.TYPE;
+        }
+    }
+
+    public static List<Post> generateMockPosts(int count) {
+        return generateMockPosts(count, ContentMix.UNIFORM);
+    }
+
+    public static List<Post> generateMockPosts(int count, ContentMix mix) {
+        UserRegistry users = UserRegistry.shared();
+        StringPool strings = StringPool.shared();
+        List<Post> posts = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            User user = users.intern(new User("user_" + i, "User " + i, "https://placehold.co/100x100/EFEFEF/333333?text=U" + i));
+            ContentType<?> type = mix.pick(Math.random());
+            PostContent content;
+            if (type == ImageContent.TYPE) {
+                content = new ImageContent(strings.intern("https://placehold.co/600x400/CCCCCC/333333?text=Image"), strings.intern("An interesting image caption. #scenery"));
+            } else if (type == VideoContent.TYPE) {
+                content = new VideoContent(strings.intern("https://placehold.co/600x400/AAAAAA/FFFFFF?text=Video"), strings.intern("about:blank"), strings.intern("A cool video preview. #fun"));
+            } else {
+                content = new TextContent("This is a sample text post. It can have a variable amount of text, which the UI needs to handle gracefully. Post number " + i + ".");
+            }
+            posts.add(new Post(UUID.randomUUID().toString(), user, content, now - (long)i * 3600 * 1000));
+        }
+        return posts;
+    }
+}
+
+
+// FeedPagePublisher.java
+package com.example.socialfeed.service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+// Walks the feed one page per unit of demand, with at most one fetch in
+// flight, and completes after the last page. Each subscription starts at
+// the top of the feed. Pages come from fetchPageAsync, so cached previews
+// are never published.
+public final class FeedPagePublisher implements Flow.Publisher<FeedPage> {
+    private final FeedService service;
+    private final int pageSize;
+    private final long timeout;
+    private final TimeUnit unit;
+
+    public FeedPagePublisher(FeedService service, int pageSize, long timeout, TimeUnit unit) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        this.service = service;
+        this.pageSize = pageSize;
+        this.timeout = timeout;
+        this.unit = unit;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FeedPage> subscriber) {
+        PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class PageSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super FeedPage> subscriber;
+        private long demand;
+        private FeedCursor cursor;
+        private CompletableFuture<FeedPage> inFlight;
+        private boolean finished;
+        private final ArrayDeque<Runnable> signals = new ArrayDeque<>();
+        private boolean emitting;
+        private boolean terminated;
+
+        PageSubscription(Flow.Subscriber<? super FeedPage> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (finished) return;
+                if (n <= 0) {
+                    finished = true;
+                    if (inFlight != null) inFlight.cancel(false);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            if (n <= 0) {
+                emit(() -> subscriber.onError(new IllegalArgumentException("request must be positive: " + n)), true);
+                return;
+            }
+            fetchNext();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            finished = true;
+            if (inFlight != null) inFlight.cancel(false);
+        }
+
+        private void fetchNext() {
+            CompletableFuture<FeedPage> fetch;
+            synchronized (this) {
+                if (finished || demand == 0 || inFlight != null) return;
+                fetch = timeout > 0
+                        ? service.fetchPageAsync(cursor, pageSize, timeout, unit)
+                        : service.fetchPageAsync(cursor, pageSize);
+                inFlight = fetch;
+            }
+            fetch.whenComplete(this::onPage);
+        }
+
+        private void onPage(FeedPage page, Throwable error) {
+            boolean last;
+            synchronized (this) {
+                inFlight = null;
+                if (finished) return;
+                if (error != null) {
+                    finished = true;
+                } else {
+                    demand--;
+                    cursor = page.nextCursor;
+                    finished = !page.hasMore;
+                }
+                last = finished;
+            }
+            if (error != null) {
+                emit(() -> subscriber.onError(error), true);
+                return;
+            }
+            emit(() -> subscriber.onNext(page), false);
+            if (last) {
+                emit(subscriber::onComplete, true);
+            } else {
+                fetchNext();
+            }
+        }
+
+        // Every signal goes through here, so onNext, onError and onComplete
+        // never overlap, even when request() comes from another thread or from
+        // inside onNext, and nothing follows a terminal signal.
+        private void emit(Runnable signal, boolean terminal) {
+            synchronized (this) {
+                if (terminated) return;
+                terminated = terminal;
+                signals.add(signal);
+                if (emitting) return;
+                emitting = true;
+            }
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    next = signals.poll();
+                    if (next == null) {
+                        emitting = false;
+                        return;
+                    }
+                }
+                try {
+                    next.run();
+                } catch (RuntimeException e) {
+                    // A subscriber that throws has broken the contract; stop signalling it.
+                    synchronized (this) {
+                        signals.clear();
+                        terminated = true;
+                        emitting = false;
+                    }
+                    cancel();
+                    throw e;
+                }
+            }
+        }
+    }
+}
+
+// MockPostStream.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// In-process stand-in for the /api/feed/stream socket. Emits bursts of new
+// posts; publish() lets callers inject their own. SubmissionPublisher blocks
+// the producer once a subscriber's buffer is full, so slow subscribers push back.
+public class MockPostStream implements Flow.Publisher<Post>, AutoCloseable {
+    private static final long BURST_INTERVAL_SECONDS = 5;
+    private static final int MAX_BURST = 30;
+
+    private final SubmissionPublisher<Post> publisher = new SubmissionPublisher<>();
+    private final Consumer<Post> onPublished;
+    private final AtomicLong newestTimestamp = new AtomicLong();
+    private ScheduledExecutorService bursts;
+
+    public MockPostStream(Consumer<Post> onPublished) {
+        this.onPublished = onPublished;
+    }
+
+    @Override
+    public synchronized void subscribe(Flow.Subscriber<? super Post> subscriber) {
+        publisher.subscribe(subscriber);
+        if (bursts == null && !publisher.isClosed()) {
+            bursts = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "feed-stream");
+                thread.setDaemon(true);
+                return thread;
+            });
+            bursts.scheduleWithFixedDelay(this::emitBurst, BURST_INTERVAL_SECONDS, BURST_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public void publish(Post post) {
+        newestTimestamp.accumulateAndGet(post.timestamp, Math::max);
+        onPublished.accept(post);
+        publisher.submit(post);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (bursts != null) bursts.shutdownNow();
+        publisher.close();
+    }
+
+    private void emitBurst() {
+        List<Post> burst = FeedService.generateMockPosts((int) (Math.random() * MAX_BURST));
+        // Generated posts run back from now an hour apart. Restamp them after
+        // the newest post so far, so a burst always lands above the head, and
+        // publish oldest first, as a live stream would.
+        long timestamp = Math.max(System.currentTimeMillis(), newestTimestamp.get() + 1);
+        for (int i = burst.size() - 1; i >= 0 && !publisher.isClosed(); i--) {
+            Post post = burst.get(i);
+            publish(new Post(post.id, post.author, post.content, timestamp++));
+        }
+    }
+}
+
+// PostBatcher.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces a post stream into micro-batches, flushed when maxBatchSize posts
+// are buffered or windowMillis after the first one arrived. At most
+// bufferCapacity posts are requested ahead of delivery, so a busy stream is
+// held back instead of buffered without bound. Batches are delivered in order
+// on a single thread.
+public class PostBatcher implements Flow.Subscriber<Post>, AutoCloseable {
+    public interface BatchListener {
+        void onBatch(List<Post> batch);
+    }
+
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final int bufferCapacity;
+    private final BatchListener listener;
+    private final ScheduledExecutorService delivery = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "feed-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object();
+    private final List<Post> buffer = new ArrayList<>();
+    private ScheduledFuture<?> windowFlush;
+    private boolean flushQueued;
+    private volatile Flow.Subscription subscription;
+
+    public PostBatcher(int maxBatchSize, long windowMillis, int bufferCapacity, BatchListener listener) {
+        if (maxBatchSize <= 0 || bufferCapacity < maxBatchSize) {
+            throw new IllegalArgumentException("Need 0 < maxBatchSize <= bufferCapacity: " + maxBatchSize + ", " + bufferCapacity);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.bufferCapacity = bufferCapacity;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(bufferCapacity);
+    }
+
+    // After close() the delivery thread is gone; posts still in flight from
+    // the publisher are dropped rather than thrown back at it.
+    @Override
+    public void onNext(Post post) {
+        synchronized (lock) {
+            if (delivery.isShutdown()) return;
+            buffer.add(post);
+            try {
+                scheduleFlush();
+            } catch (RejectedExecutionException e) {
+                buffer.clear();
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        flushLater();
+    }
+
+    @Override
+    public void onComplete() {
+        flushLater();
+    }
+
+    @Override
+    public void close() {
+        Flow.Subscription current = subscription;
+        if (current != null) current.cancel();
+        delivery.shutdownNow();
+    }
+
+    private void flushLater() {
+        try {
+            delivery.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            // Closed; nothing left to deliver to.
+        }
+    }
+
+    // Caller holds lock.
+    private void scheduleFlush() {
+        if (flushQueued || buffer.isEmpty()) return;
+        if (buffer.size() >= maxBatchSize) {
+            if (windowFlush != null) windowFlush.cancel(false);
+            windowFlush = null;
+            flushQueued = true;
+            delivery.execute(this::flush);
+        } else if (windowFlush == null) {
+            windowFlush = delivery.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<Post> batch;
+        synchronized (lock) {
+            flushQueued = false;
+            if (windowFlush != null) windowFlush.cancel(false);
+            windowFlush = null;
+            if (buffer.isEmpty()) return;
+            List<Post> head = buffer.subList(0, Math.min(maxBatchSize, buffer.size()));
+            batch = new ArrayList<>(head);
+            head.clear();
+            scheduleFlush();
+        }
+        listener.onBatch(batch);
+        Flow.Subscription current = subscription;
+        if (current != null) current.request(batch.size());
+    }
+}
+
+// FeedCache.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Two tiers: an LRU of posts bounded by estimated bytes, and an append-only
+// segment file on disk that survives process death. The segment is compacted
+// down to the current first page once it outgrows its byte budget. Each
+// record carries a CRC; loading stops at the first torn or corrupt record
+// and truncates the segment there, so later appends stay readable.
+public class FeedCache {
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 4L * 1024 * 1024;
+    public static final long DEFAULT_DISK_BUDGET_BYTES = 8L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 7L * 24 * 3600 * 1000;
+
+    private static final String SEGMENT_NAME = "posts.seg";
+    private static final int SEGMENT_MAGIC = 0x46454544; // "FEED"
+    private static final int SEGMENT_VERSION = 1;
+    // magic, version.
+    private static final int SEGMENT_HEADER_BYTES = 4 + 4;
+    // storedAt, hasMore, length, crc.
+    private static final int RECORD_HEADER_BYTES = 8 + 1 + 4 + 4;
+
+    private final File segment;
+    private final long memoryBudgetBytes;
+    private final long diskBudgetBytes;
+    private final long maxAgeMillis;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    // Ids of the first page in order; a set so eviction checks are O(1).
+    private LinkedHashSet<String> headIds = new LinkedHashSet<>();
+    private boolean headHasMore;
+    private long headStoredAt;
+    private boolean diskLoaded;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Entry {
+        final Post post;
+        final long bytes;
+        final long storedAt;
+
+        Entry(Post post, long bytes, long storedAt) {
+            this.post = post;
+            this.bytes = bytes;
+            this.storedAt = storedAt;
+        }
+    }
+
+    public FeedCache(File directory) {
+        this(directory, DEFAULT_MEMORY_BUDGET_BYTES, DEFAULT_DISK_BUDGET_BYTES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    // Touches no files; the directory is created on the first write.
+    public FeedCache(File directory, long memoryBudgetBytes, long diskBudgetBytes, long maxAgeMillis) {
+        this.segment = new File(directory, SEGMENT_NAME);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public synchronized Post get(String id) {
+        ensureLoaded();
+        Entry entry = memory.get(id);
+        if (entry == null || isExpired(entry.storedAt)) {
+            if (entry != null) remove(id);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.post;
+    }
+
+    // The last first page stored, or null when it is missing, incomplete or too old.
+    public synchronized FeedPage firstPage() {
+        ensureLoaded();
+        if (headIds.isEmpty() || isExpired(headStoredAt)) {
+            misses.increment();
+            return null;
+        }
+        List<Post> posts = new ArrayList<>(headIds.size());
+        for (String id : headIds) {
+            Entry entry = memory.get(id);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            posts.add(entry.post);
+        }
+        hits.increment();
+        return new FeedPage(posts, FeedCursor.of(posts.get(posts.size() - 1)), headHasMore, true);
+    }
+
+    public synchronized void putFirstPage(FeedPage page) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        headIds = new LinkedHashSet<>(page.posts.size() * 2);
+        for (Post post : page.posts) {
+            headIds.add(post.id);
+            putInMemory(post, now);
+        }
+        headHasMore = page.hasMore;
+        headStoredAt = now;
+        try {
+            appendToDisk(page.posts, now);
+            if (segment.length() > diskBudgetBytes) compact(now);
+        } catch (IOException e) {
+            // The disk tier is best effort; the memory tier still holds the page.
+            segment.delete();
+        }
+    }
+
+    public synchronized void putAll(List<Post> posts) {
+        long now = System.currentTimeMillis();
+        for (Post post : posts) putInMemory(post, now);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private boolean isExpired(long storedAt) {
+        return System.currentTimeMillis() - storedAt > maxAgeMillis;
+    }
+
+    private void putInMemory(Post post, long storedAt) {
+        long bytes = estimateBytes(post);
+        Entry previous = memory.put(post.id, new Entry(post, bytes, storedAt));
+        if (previous != null) memoryBytes -= previous.bytes;
+        memoryBytes += bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > memoryBudgetBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> candidate = eldest.next();
+            if (headIds.contains(candidate.getKey())) continue;
+            memoryBytes -= candidate.getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    private void remove(String id) {
+        Entry removed = memory.remove(id);
+        if (removed != null) memoryBytes -= removed.bytes;
+    }
+
+    private static long estimateBytes(Post post) {
+        long chars = post.id.length() + post.author.id.length() + post.author.username.length() + post.author.avatarURL.length();
+        if (post.content instanceof TextContent) {
+            chars += ((TextContent) post.content).text.length();
+        } else if (post.content instanceof ImageContent) {
+            ImageContent image = (ImageContent) post.content;
+            chars += image.imageURL.length() + length(image.caption);
+        } else if (post.content instanceof VideoContent) {
+            VideoContent video = (VideoContent) post.content;
+            chars += video.thumbnailURL.length() + video.videoURL.length() + length(video.caption);
+        }
+        // Object headers and references for Post, User, content and the strings.
+        return 200 + 2 * chars;
+    }
+
+    // Captions may be null.
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private void ensureLoaded() {
+        if (diskLoaded) return;
+        diskLoaded = true;
+        if (!segment.exists()) return;
+        long segmentBytes = segment.length();
+        long goodBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            if (in.readInt() != SEGMENT_MAGIC || in.readInt() != SEGMENT_VERSION) {
+                // Not ours, or an older layout; the cache simply starts empty.
+                segment.delete();
+                return;
+            }
+            goodBytes = SEGMENT_HEADER_BYTES;
+            while (true) {
+                long storedAt = in.readLong();
+                boolean hasMore = in.readBoolean();
+                int length = in.readInt();
+                // A garbage length must not turn into a huge or negative allocation.
+                if (length < 0 || length > segmentBytes - goodBytes - RECORD_HEADER_BYTES) break;
+                byte[] page = new byte[length];
+                int crc = in.readInt();
+                in.readFully(page);
+                if (checksum(storedAt, hasMore, page) != crc) break;
+                goodBytes += RECORD_HEADER_BYTES + page.length;
+                if (isExpired(storedAt)) continue;
+                List<Post> posts = PostCodec.decodePage(page);
+                headIds = new LinkedHashSet<>(posts.size() * 2);
+                for (Post post : posts) headIds.add(post.id);
+                for (Post post : posts) putInMemory(post, storedAt);
+                headHasMore = hasMore;
+                headStoredAt = storedAt;
+            }
+        } catch (EOFException e) {
+            // End of segment, or a record torn by a crash; everything before it is usable.
+        } catch (IOException | RuntimeException e) {
+            segment.delete();
+            return;
+        }
+        if (goodBytes < segmentBytes) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                file.setLength(goodBytes);
+            } catch (IOException e) {
+                segment.delete();
+            }
+        }
+    }
+
+    private void appendToDisk(List<Post> posts, long now) throws IOException {
+        writeSegment(segment, true, posts, now);
+    }
+
+    private void compact(long now) throws IOException {
+        List<Post> head = new ArrayList<>(headIds.size());
+        for (String id : headIds) {
+            Entry entry = memory.get(id);
+            if (entry == null) {
+                // The head is incomplete, so firstPage() would not serve it either.
+                segment.delete();
+                return;
+            }
+            head.add(entry.post);
+        }
+        File compacted = new File(segment.getParentFile(), SEGMENT_NAME + ".tmp");
+        writeSegment(compacted, false, head, now);
+        if (!compacted.renameTo(segment)) throw new IOException("Could not replace " + segment);
+    }
+
+    // Segment header (magic, version), then one record per stored first page:
+    // storedAt, hasMore, length, crc, PostCodec page.
+    private void writeSegment(File file, boolean append, List<Post> posts, long now) throws IOException {
+        byte[] page = PostCodec.encodePage(posts);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+        boolean fresh = !append || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)))) {
+            if (fresh) {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(SEGMENT_VERSION);
+            }
+            out.writeLong(now);
+            out.writeBoolean(headHasMore);
+            out.writeInt(page.length);
+            out.writeInt(checksum(now, headHasMore, page));
+            out.write(page);
+        }
+    }
+
+    // Covers the header fields too, so a torn header is caught as well as a torn page.
+    private static int checksum(long storedAt, boolean hasMore, byte[] page) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) crc.update((int) (storedAt >>> shift));
+        crc.update(hasMore ? 1 : 0);
+        crc.update(page.length >>> 24);
+        crc.update(page.length >>> 16);
+        crc.update(page.length >>> 8);
+        crc.update(page.length);
+        crc.update(page);
+        return (int) crc.getValue();
+    }
+}
+
+// FeedJournal.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+// Append-only history of received pages in fixed-size memory-mapped segment
+// files. A record is [length][crc32][min timestamp][max timestamp][PostCodec
+// page]; the CRC covers everything after itself and the length is written
+// last. Opening recovers only the newest segment: records are checked up to
+// the first bad one and a torn tail behind it is zeroed. Older segments
+// were forced when they rolled over and are mapped only when a read reaches
+// them. Each segment keeps a sparse time index of one block per
+// INDEX_BLOCK_BYTES holding the min and max timestamp of its records. Only
+// the newest maxSegments segments are kept; older ones are deleted as new
+// segments are started. A post appended again unchanged within the last
+// RECENT_POSTS appends is skipped, so refreshing the same first page does not
+// spend retention on copies; when a post was journaled more than once, reads
+// return the copy written last.
+public class FeedJournal implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+    public static final int RECENT_POSTS = 4096;
+
+    private static final int HEADER_BYTES = 24;
+    private static final int INDEX_BLOCK_BYTES = 64 * 1024;
+    private static final String SUFFIX = ".journal";
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean opened;
+    // Fingerprint of the last journaled version of recently appended posts, by id.
+    // Forgotten when a segment is deleted, since it may have held the only copy.
+    private final Map<String, Long> recent = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > RECENT_POSTS;
+        }
+    };
+
+    // A journaled post and when it was written: segment sequence << 32 | record offset.
+    private static final class Journaled {
+        Post post;
+        long written;
+
+        Journaled(Post post, long written) {
+            this.post = post;
+            this.written = written;
+        }
+    }
+
+    private static final class Segment {
+        final long sequence;
+        final File file;
+        MappedByteBuffer buffer;
+        int end;
+        int[] records = new int[64];
+        int recordCount;
+        // Sparse index: first record offset of each block and its timestamp bounds.
+        int[] blockStarts = new int[16];
+        long[] blockMin = new long[16];
+        long[] blockMax = new long[16];
+        int blockCount;
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        void track(int offset, long minTimestamp, long maxTimestamp) {
+            if (recordCount == records.length) records = Arrays.copyOf(records, recordCount * 2);
+            records[recordCount++] = offset;
+            if (blockCount == 0 || offset - blockStarts[blockCount - 1] >= INDEX_BLOCK_BYTES) {
+                if (blockCount == blockStarts.length) {
+                    blockStarts = Arrays.copyOf(blockStarts, blockCount * 2);
+                    blockMin = Arrays.copyOf(blockMin, blockCount * 2);
+                    blockMax = Arrays.copyOf(blockMax, blockCount * 2);
+                }
+                blockStarts[blockCount] = offset;
+                blockMin[blockCount] = minTimestamp;
+                blockMax[blockCount] = maxTimestamp;
+                blockCount++;
+            } else {
+                blockMin[blockCount - 1] = Math.min(blockMin[blockCount - 1], minTimestamp);
+                blockMax[blockCount - 1] = Math.max(blockMax[blockCount - 1], maxTimestamp);
+            }
+        }
+    }
+
+    public FeedJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public FeedJournal(File directory, int segmentBytes) {
+        this(directory, segmentBytes, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public FeedJournal(File directory, int segmentBytes, int maxSegments) {
+        if (segmentBytes <= HEADER_BYTES) throw new IllegalArgumentException("segmentBytes too small: " + segmentBytes);
+        if (maxSegments <= 0) throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+    }
+
+    public synchronized void append(List<Post> posts) throws IOException {
+        if (posts.isEmpty()) return;
+        ensureOpen();
+        List<Post> changed = new ArrayList<>(posts.size());
+        long[] fingerprints = new long[posts.size()];
+        for (Post post : posts) {
+            long fingerprint = fingerprint(post);
+            Long known = recent.get(post.id);
+            if (known != null && known == fingerprint) continue;
+            fingerprints[changed.size()] = fingerprint;
+            changed.add(post);
+        }
+        if (changed.isEmpty()) return;
+        posts = changed;
+        byte[] payload = PostCodec.encodePage(posts);
+        if (HEADER_BYTES + payload.length > segmentBytes) {
+            throw new IOException("Record of " + payload.length + " bytes exceeds the segment size");
+        }
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.end + HEADER_BYTES + payload.length > segmentBytes) {
+            segment.buffer.force();
+            segment = createSegment(segment.sequence + 1);
+            retain();
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Post post : posts) {
+            min = Math.min(min, post.timestamp);
+            max = Math.max(max, post.timestamp);
+        }
+        int offset = segment.end;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putLong(offset + 8, min);
+        buffer.putLong(offset + 16, max);
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + HEADER_BYTES);
+        body.put(payload);
+        buffer.putInt(offset + 4, checksum(buffer, offset, payload.length));
+        buffer.putInt(offset, payload.length);
+        segment.end = offset + HEADER_BYTES + payload.length;
+        segment.track(offset, min, max);
+        for (int i = 0; i < posts.size(); i++) recent.put(posts.get(i).id, fingerprints[i]);
+    }
+
+    // The newest journaled posts by timestamp, newest first, for a warm start.
+    public synchronized List<Post> tail(int maxPosts) throws IOException {
+        return page(null, maxPosts);
+    }
+
+    // Journaled posts with fromMillis <= timestamp < toMillis, newest first.
+    public synchronized List<Post> range(long fromMillis, long toMillis) throws IOException {
+        ensureOpen();
+        Map<String, Journaled> found = new HashMap<>();
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = load(segments.get(s));
+            for (int b = segment.blockCount - 1; b >= 0; b--) {
+                if (segment.blockMax[b] < fromMillis || segment.blockMin[b] >= toMillis) continue;
+                int blockEnd = b + 1 < segment.blockCount ? segment.blockStarts[b + 1] : segment.end;
+                int first = Arrays.binarySearch(segment.records, 0, segment.recordCount, segment.blockStarts[b]);
+                for (int r = first; r < segment.recordCount && segment.records[r] < blockEnd; r++) {
+                    long written = segment.sequence << 32 | segment.records[r];
+                    for (Post post : read(segment, segment.records[r])) {
+                        if (post.timestamp >= fromMillis && post.timestamp < toMillis) keepLatest(found, post, written);
+                    }
+                }
+            }
+        }
+        return newestFirst(found, Integer.MAX_VALUE);
+    }
+
+    // Up to limit journaled posts past the cursor (from the top when after is
+    // null), newest first. Index blocks are read in order of their newest
+    // timestamp, and the walk stops once no unread block can hold a post
+    // newer than the limit-th newest found so far, tracked in a bounded heap.
+    public synchronized List<Post> page(FeedCursor after, int limit) throws IOException {
+        ensureOpen();
+        List<int[]> blocks = new ArrayList<>();
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = load(segments.get(s));
+            for (int b = 0; b < segment.blockCount; b++) {
+                if (after == null || segment.blockMin[b] <= after.timestamp) blocks.add(new int[] {s, b});
+            }
+        }
+        blocks.sort((x, y) -> Long.compare(segments.get(y[0]).blockMax[y[1]], segments.get(x[0]).blockMax[x[1]]));
+        Map<String, Journaled> found = new HashMap<>();
+        PriorityQueue<Long> newest = new PriorityQueue<>();
+        for (int[] block : blocks) {
+            Segment segment = segments.get(block[0]);
+            int b = block[1];
+            if (newest.size() >= limit && segment.blockMax[b] < newest.peek()) break;
+            int blockEnd = b + 1 < segment.blockCount ? segment.blockStarts[b + 1] : segment.end;
+            int first = Arrays.binarySearch(segment.records, 0, segment.recordCount, segment.blockStarts[b]);
+            for (int r = first; r < segment.recordCount && segment.records[r] < blockEnd; r++) {
+                long written = segment.sequence << 32 | segment.records[r];
+                for (Post post : read(segment, segment.records[r])) {
+                    if (after != null && FeedCursor.of(post).compareTo(after) <= 0) continue;
+                    if (keepLatest(found, post, written)) {
+                        newest.add(post.timestamp);
+                        if (newest.size() > limit) newest.poll();
+                    }
+                }
+            }
+        }
+        return newestFirst(found, limit);
+    }
+
+    public synchronized int recordCount() throws IOException {
+        ensureOpen();
+        int count = 0;
+        for (Segment segment : segments) count += load(segment).recordCount;
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            if (segment.buffer != null) segment.buffer.force();
+            segment.buffer = null;
+        }
+        segments.clear();
+        opened = false;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (opened) return;
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        List<Segment> found = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    found.add(new Segment(Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length())), file));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        Collections.sort(found, (a, b) -> Long.compare(a.sequence, b.sequence));
+        segments.addAll(found);
+        if (segments.isEmpty()) {
+            createSegment(0);
+        } else {
+            recover(segments.get(segments.size() - 1));
+        }
+        retain();
+        opened = true;
+    }
+
+    // Deletes the oldest segments beyond maxSegments.
+    private void retain() throws IOException {
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            oldest.buffer = null;
+            recent.clear();
+            if (oldest.file.exists() && !oldest.file.delete()) throw new IOException("Cannot delete " + oldest.file);
+        }
+    }
+
+    // Validates every record of the newest segment and zeroes whatever follows the last good one.
+    private void recover(Segment segment) throws IOException {
+        segment.buffer = map(segment.file);
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > segmentBytes - offset - HEADER_BYTES) break;
+            if (buffer.getInt(offset + 4) != checksum(buffer, offset, length)) break;
+            segment.track(offset, buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+            offset += HEADER_BYTES + length;
+        }
+        segment.end = offset;
+        // A clean shutdown leaves a zero length behind the last record. Only
+        // a torn tail pays for zeroing the rest of the segment.
+        if (offset + 4 <= segmentBytes && buffer.getInt(offset) != 0) {
+            for (int i = offset; i < segmentBytes; i++) buffer.put(i, (byte) 0);
+            buffer.force();
+        }
+    }
+
+    // Maps a sealed segment and rebuilds its index from the record headers.
+    private Segment load(Segment segment) throws IOException {
+        if (segment.buffer != null) return segment;
+        segment.buffer = map(segment.file);
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes) {
+            int length = segment.buffer.getInt(offset);
+            if (length <= 0 || length > segmentBytes - offset - HEADER_BYTES) break;
+            segment.track(offset, segment.buffer.getLong(offset + 8), segment.buffer.getLong(offset + 16));
+            offset += HEADER_BYTES + length;
+        }
+        segment.end = offset;
+        return segment;
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        Segment segment = new Segment(sequence, new File(directory, String.format(Locale.ROOT, "%012d%s", sequence, SUFFIX)));
+        segment.buffer = map(segment.file);
+        segments.add(segment);
+        return segment;
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != segmentBytes) raf.setLength(segmentBytes);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    // A record that fails its checksum is skipped rather than failing the read.
+    private static List<Post> read(Segment segment, int offset) throws IOException {
+        MappedByteBuffer buffer = segment.buffer;
+        int length = buffer.getInt(offset);
+        if (buffer.getInt(offset + 4) != checksum(buffer, offset, length)) return Collections.emptyList();
+        byte[] payload = new byte[length];
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + HEADER_BYTES);
+        body.get(payload);
+        return PostCodec.decodePage(payload);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(offset + HEADER_BYTES + length);
+        covered.position(offset + 8);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    // Keeps the copy written last; true the first time the post's id is found.
+    private static boolean keepLatest(Map<String, Journaled> found, Post post, long written) {
+        Journaled known = found.get(post.id);
+        if (known == null) {
+            found.put(post.id, new Journaled(post, written));
+            return true;
+        }
+        if (written > known.written) {
+            known.post = post;
+            known.written = written;
+        }
+        return false;
+    }
+
+    private static List<Post> newestFirst(Map<String, Journaled> found, int limit) {
+        List<Post> posts = new ArrayList<>(found.size());
+        for (Journaled journaled : found.values()) posts.add(journaled.post);
+        posts.sort((a, b) -> FeedCursor.of(a).compareTo(FeedCursor.of(b)));
+        return posts.size() > limit ? new ArrayList<>(posts.subList(0, limit)) : posts;
+    }
+
+    // Content hash of the post's encoding, so an edited post is journaled again.
+    private static long fingerprint(Post post) {
+        byte[] encoded = PostCodec.encodePage(Collections.singletonList(post));
+        CRC32 crc = new CRC32();
+        crc.update(encoded);
+        return crc.getValue() << 32 | (Arrays.hashCode(encoded) & 0xFFFFFFFFL);
+    }
+}
+
+// CachingFeedService.java
+package com.example.socialfeed.service;
+
+import com.example.socialfeed.model.Post;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves the cached first page straight away, then revalidates against the
+// backend and delivers the fresh page to the same callback. With a journal,
+// every fresh page is also appended to it, and the journal tail stands in
+// for the first page when the cache has none. Both serve as fallback pages
+// while the backend is failing.
+public class CachingFeedService extends FeedService {
+    private final FeedCache cache;
+    private final FeedJournal journal;
+
+    public CachingFeedService(FeedCache cache) {
+        this(cache, null);
+    }
+
+    public CachingFeedService(FeedCache cache, FeedJournal journal) {
+        this(cache, journal, new SkipListPostStore());
+    }
+
+    public CachingFeedService(FeedCache cache, FeedJournal journal, PostStore store) {
+        super(DEFAULT_MAX_CONCURRENT_FETCHES, store);
+        this.cache = cache;
+        this.journal = journal;
+    }
+
+    public FeedCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public FetchHandle fetchPage(FeedCursor after, int limit, FeedCallback callback) {
+        AtomicBoolean freshDelivered = new AtomicBoolean();
+        FetchHandle cachedFetch = null;
+        if (after == null) {
+            cachedFetch = runAsync(() -> {
+                FeedPage cached = cache.firstPage();
+                if (cached == null) cached = journalTail(limit);
+                synchronized (freshDelivered) {
+                    if (cached != null && !freshDelivered.get()) callback.onSuccess(cached);
+                }
+            });
+        }
+        FetchHandle freshFetch = super.fetchPage(after, limit, new FeedCallback() {
+            @Override
+            public void onSuccess(FeedPage page) {
+                synchronized (freshDelivered) {
+                    freshDelivered.set(true);
+                }
+                callback.onSuccess(page);
+            }
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+        return cachedFetch == null ? freshFetch : new PairedHandle(cachedFetch, freshFetch);
+    }
+
+    @Override
+    protected void onPageLoaded(FeedCursor after, FeedPage page) {
+        if (after == null) {
+            cache.putFirstPage(page);
+        } else {
+            cache.putAll(page.posts);
+        }
+        journal(page.posts);
+    }
+
+    // While the backend is failing the feed keeps scrolling through what was
+    // saved: the cached first page, then journaled posts past the cursor.
+    @Override
+    protected FeedPage fallbackPage(FeedCursor after, int limit) {
+        if (after == null) {
+            FeedPage cached = cache.firstPage();
+            return cached != null ? cached : journalTail(limit);
+        }
+        // The journal is in time order; it cannot continue another order's page.
+        if (journal == null || after.isOpaque()) return null;
+        try {
+            List<Post> page = journal.page(after, limit);
+            if (page.isEmpty()) return null;
+            return new FeedPage(page, FeedCursor.of(page.get(page.size() - 1)), true, true);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (journal != null) journal.close();
+    }
+
+    private FeedPage journalTail(int limit) {
+        if (journal == null) return null;
+        try {
+            List<Post> posts = journal.tail(limit);
+            return posts.isEmpty() ? null : new FeedPage(posts, FeedCursor.of(posts.get(posts.size() - 1)), true, true);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void journal(List<Post> posts) {
+        if (journal == null) return;
+        try {
+            journal.append(posts);
+        } catch (IOException e) {
+            // Like the disk cache, the journal is best effort.
+        }
+    }
+
+    private static final class PairedHandle implements FetchHandle {
+        private final FetchHandle cached;
+        private final FetchHandle fresh;
+
+        PairedHandle(FetchHandle cached, FetchHandle fresh) {
+            this.cached = cached;
+            this.fresh = fresh;
+        }
+
+        @Override
+        public void cancel() {
+            cached.cancel();
+            fresh.cancel();
+        }
+
+        @Override public boolean isCancelled() { return fresh.isCancelled(); }
+        @Override public boolean isDone() { return cached.isDone() && fresh.isDone(); }
+    }
+}
+
+// --- Search Package ---
+
+// Postings.java
+package com.example.socialfeed.search;
+
+import java.util.Arrays;
+
+// Ascending doc ids stored as varint deltas. Every BLOCK_SIZE docs a skip entry
+// records the block's first doc and byte offset, so advance() can jump over
+// whole blocks without decoding them.
+final class Postings {
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    private static final int BLOCK_SIZE = 64;
+
+    private byte[] data = new byte[8];
+    private int length;
+    private int count;
+    private int lastDoc = -1;
+    private int[] blockFirstDoc = new int[1];
+    private int[] blockOffset = new int[1];
+    private int blocks;
+
+    void add(int doc) {
+        if (doc <= lastDoc) return;
+        if (count % BLOCK_SIZE == 0) {
+            if (blocks == blockFirstDoc.length) {
+                blockFirstDoc = Arrays.copyOf(blockFirstDoc, blocks * 2);
+                blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+            }
+            blockFirstDoc[blocks] = doc;
+            blockOffset[blocks] = length;
+            blocks++;
+            writeVarInt(doc);
+        } else {
+            writeVarInt(doc - lastDoc);
+        }
+        lastDoc = doc;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void writeVarInt(int value) {
+        if (length + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    final class Cursor {
+        private int doc = -1;
+        private int index = -1;
+        private int offset;
+        private final int end = length;
+        private final int size = count;
+
+        int doc() {
+            return doc;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int nextDoc() {
+            if (++index >= size || offset >= end) return doc = NO_MORE_DOCS;
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            doc = index % BLOCK_SIZE == 0 ? value : doc + value;
+            return doc;
+        }
+
+        // First doc >= target.
+        int advance(int target) {
+            if (doc >= target) return doc;
+            int block = (index + 1) / BLOCK_SIZE;
+            int lastBlock = (size - 1) / BLOCK_SIZE;
+            int jump = block;
+            while (jump + 1 <= lastBlock && blockFirstDoc[jump + 1] <= target) jump++;
+            if (jump > block) {
+                index = jump * BLOCK_SIZE - 1;
+                offset = blockOffset[jump];
+            }
+            int next;
+            do {
+                next = nextDoc();
+            } while (next < target);
+            return next;
+        }
+    }
+}
+
+// Tokenizer.java
+package com.example.socialfeed.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class Tokenizer {
+    private Tokenizer() {}
+
+    // Lower-cased words; a hashtag yields both "#tag" and "tag".
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        int i = 0;
+        int n = text.length();
+        StringBuilder token = new StringBuilder();
+        while (i < n) {
+            boolean hashtag = text.charAt(i) == '#';
+            if (hashtag) i++;
+            token.setLength(0);
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                token.append(Character.toLowerCase(text.charAt(i)));
+                i++;
+            }
+            if (token.length() > 0) {
+                String word = token.toString();
+                tokens.add(word);
+                if (hashtag) tokens.add("#" + word);
+            } else if (!hashtag) {
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
+
+// PostSearchIndex.java
+package com.example.socialfeed.search;
+
+import com.example.socialfeed.model.ImageContent;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.model.TextContent;
+import com.example.socialfeed.model.VideoContent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over post text, captions, hashtags and usernames.
+// Posts get dense doc ids as they are added; a query ANDs its words, treats
+// the last word as a prefix, and returns the newest matches first. Postings
+// are append-only, so an edited post is indexed again under a new doc id and
+// its old doc, like a removed one, is masked out of results; once masked
+// docs outnumber live ones the index is rebuilt from the live posts.
+public class PostSearchIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<String, Integer> docsByPostId = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private Post[] posts = new Post[256];
+    private long[] timestamps = new long[256];
+    private int docCount;
+
+    // Adds new posts and reindexes ones whose id is already indexed with a different Post.
+    public void addAll(Collection<Post> newPosts) {
+        lock.writeLock().lock();
+        try {
+            for (Post post : newPosts) addLocked(post);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Collection<String> postIds) {
+        lock.writeLock().lock();
+        try {
+            for (String id : postIds) {
+                Integer doc = docsByPostId.remove(id);
+                if (doc != null) delete(doc);
+            }
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docCount - deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Post> search(String query, int limit) {
+        List<String> words = Tokenizer.tokenize(query);
+        if (words.isEmpty() || limit <= 0) return Collections.emptyList();
+        boolean lastIsPrefix = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+        // "#tag" also produced "tag"; search the hashtag form only.
+        List<String> required = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            if (i + 1 < words.size() && words.get(i + 1).equals("#" + word)) continue;
+            required.add(word);
+        }
+        String prefix = lastIsPrefix ? required.remove(required.size() - 1) : null;
+
+        lock.readLock().lock();
+        try {
+            return collect(required, prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addLocked(Post post) {
+        Integer existing = docsByPostId.get(post.id);
+        if (existing != null) {
+            if (posts[existing] == post) return;
+            delete(existing);
+        }
+        int doc = docCount++;
+        if (doc == posts.length) {
+            posts = Arrays.copyOf(posts, doc * 2);
+            timestamps = Arrays.copyOf(timestamps, doc * 2);
+        }
+        posts[doc] = post;
+        timestamps[doc] = post.timestamp;
+        docsByPostId.put(post.id, doc);
+        for (String term : termsOf(post)) {
+            terms.computeIfAbsent(term, t -> new Postings()).add(doc);
+        }
+    }
+
+    private void delete(int doc) {
+        deleted.set(doc);
+        posts[doc] = null;
+    }
+
+    private void compactIfSparse() {
+        int dead = deleted.cardinality();
+        if (dead == 0 || dead < docCount - dead) return;
+        List<Post> live = new ArrayList<>(docCount - dead);
+        for (int doc = 0; doc < docCount; doc++) {
+            if (!deleted.get(doc)) live.add(posts[doc]);
+        }
+        terms.clear();
+        docsByPostId.clear();
+        deleted.clear();
+        posts = new Post[Math.max(256, live.size())];
+        timestamps = new long[posts.length];
+        docCount = 0;
+        for (Post post : live) addLocked(post);
+    }
+
+    private static Set<String> termsOf(Post post) {
+        Set<String> unique = new LinkedHashSet<>(Tokenizer.tokenize(post.author.username));
+        if (post.content instanceof TextContent) {
+            unique.addAll(Tokenizer.tokenize(((TextContent) post.content).text));
+        } else if (post.content instanceof ImageContent) {
+            unique.addAll(Tokenizer.tokenize(((ImageContent) post.content).caption));
+        } else if (post.content instanceof VideoContent) {
+            unique.addAll(Tokenizer.tokenize(((VideoContent) post.content).caption));
+        }
+        return unique;
+    }
+
+    private List<Post> collect(List<String> required, String prefix, int limit) {
+        List<Postings.Cursor> cursors = new ArrayList<>(required.size());
+        for (String word : required) {
+            Postings postings = terms.get(word);
+            if (postings == null) return Collections.emptyList();
+            cursors.add(postings.cursor());
+        }
+        BitSet prefixDocs = null;
+        if (prefix != null) {
+            NavigableMap<String, Postings> expansions = terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+            if (expansions.isEmpty()) return Collections.emptyList();
+            if (expansions.size() == 1) {
+                cursors.add(expansions.firstEntry().getValue().cursor());
+            } else {
+                prefixDocs = new BitSet(docCount);
+                for (Postings postings : expansions.values()) {
+                    Postings.Cursor cursor = postings.cursor();
+                    for (int doc = cursor.nextDoc(); doc != Postings.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+                        prefixDocs.set(doc);
+                    }
+                }
+            }
+        }
+
+        PriorityQueue<Integer> newest = new PriorityQueue<>(limit + 1, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+        if (cursors.isEmpty()) {
+            prefixDocs.andNot(deleted);
+            for (int doc = prefixDocs.nextSetBit(0); doc >= 0; doc = prefixDocs.nextSetBit(doc + 1)) {
+                offer(newest, doc, limit);
+            }
+        } else {
+            cursors.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            Postings.Cursor lead = cursors.get(0);
+            outer:
+            for (int doc = lead.nextDoc(); doc != Postings.NO_MORE_DOCS; doc = lead.nextDoc()) {
+                for (int i = 1; i < cursors.size(); i++) {
+                    int other = cursors.get(i).advance(doc);
+                    if (other == Postings.NO_MORE_DOCS) break outer;
+                    if (other != doc) continue outer;
+                }
+                if ((prefixDocs == null || prefixDocs.get(doc)) && !deleted.get(doc)) offer(newest, doc, limit);
+            }
+        }
+
+        Post[] ranked = new Post[newest.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) ranked[i] = posts[newest.poll()];
+        return Arrays.asList(ranked);
+    }
+
+    private void offer(PriorityQueue<Integer> newest, int doc, int limit) {
+        if (newest.size() < limit) {
+            newest.add(doc);
+        } else if (timestamps[doc] > timestamps[newest.peek()]) {
+            newest.poll();
+            newest.add(doc);
+        }
+    }
+}
+
+// --- Ranking Package ---
+
+// RankingContext.java
+package com.example.socialfeed.ranking;
+
+public final class RankingContext {
+    public final long nowMillis;
+
+    public RankingContext(long nowMillis) {
+        this.nowMillis = nowMillis;
+    }
+}
+
+// PostScorer.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+
+// Scores must be safe to compute from several threads at once.
+public interface PostScorer {
+    double score(Post post, RankingContext context);
+}
+
+// RecencyDecayScorer.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+
+// 1.0 for a post created now, halving every halfLifeMillis.
+public class RecencyDecayScorer implements PostScorer {
+    private final double decayPerMilli;
+
+    public RecencyDecayScorer(long halfLifeMillis) {
+        this.decayPerMilli = Math.log(2) / halfLifeMillis;
+    }
+
+    @Override
+    public double score(Post post, RankingContext context) {
+        long age = Math.max(0, context.nowMillis - post.timestamp);
+        return Math.exp(-decayPerMilli * age);
+    }
+}
+
+// AuthorAffinityScorer.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+import java.util.concurrent.ConcurrentHashMap;
+
+// How much the viewer engages with an author, 0 when unknown.
+public class AuthorAffinityScorer implements PostScorer {
+    private final ConcurrentHashMap<String, Double> affinityByAuthor = new ConcurrentHashMap<>();
+
+    public void setAffinity(String authorId, double affinity) {
+        affinityByAuthor.put(authorId, affinity);
+    }
+
+    @Override
+    public double score(Post post, RankingContext context) {
+        Double affinity = affinityByAuthor.get(post.author.id);
+        return affinity == null ? 0 : affinity;
+    }
+}
+
+// ContentTypeWeightScorer.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+import java.util.Arrays;
+
+public class ContentTypeWeightScorer implements PostScorer {
+    private final double[] weightByViewType;
+
+    // weightByViewType[i] applies to PostContent view type i; other types score 0.
+    public ContentTypeWeightScorer(double... weightByViewType) {
+        this.weightByViewType = Arrays.copyOf(weightByViewType, weightByViewType.length);
+    }
+
+    @Override
+    public double score(Post post, RankingContext context) {
+        int viewType = post.content.getViewType();
+        return viewType >= 0 && viewType < weightByViewType.length ? weightByViewType[viewType] : 0;
+    }
+}
+
+// EngagementScorer.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+
+// log(1 + engagement), so a handful of likes matters and thousands do not dominate.
+public class EngagementScorer implements PostScorer {
+    public interface EngagementSource {
+        long engagementOf(String postId);
+    }
+
+    private final EngagementSource source;
+
+    public EngagementScorer(EngagementSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public double score(Post post, RankingContext context) {
+        return Math.log1p(Math.max(0, source.engagementOf(post.id)));
+    }
+}
+
+// ScoredPostHeap.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+import java.util.Arrays;
+
+// Binary heap of posts by score over parallel arrays, without boxing. A
+// min-heap keeps the best k seen so far; a max-heap hands out the best next.
+final class ScoredPostHeap {
+    private final boolean minHeap;
+    private double[] scores;
+    private Post[] posts;
+    private int size;
+
+    ScoredPostHeap(int initialCapacity, boolean minHeap) {
+        this.minHeap = minHeap;
+        this.scores = new double[Math.max(1, initialCapacity)];
+        this.posts = new Post[Math.max(1, initialCapacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    double peekScore() {
+        return scores[0];
+    }
+
+    void add(Post post, double score) {
+        if (size == scores.length) {
+            scores = Arrays.copyOf(scores, size * 2);
+            posts = Arrays.copyOf(posts, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(score, scores[parent])) break;
+            scores[i] = scores[parent];
+            posts[i] = posts[parent];
+            i = parent;
+        }
+        scores[i] = score;
+        posts[i] = post;
+    }
+
+    // Keeps at most k entries, dropping the lowest score. Min-heap only.
+    void offerBounded(Post post, double score, int k) {
+        if (size < k) {
+            add(post, score);
+        } else if (score > scores[0]) {
+            scores[0] = score;
+            posts[0] = post;
+            siftDown(0);
+        }
+    }
+
+    Post poll() {
+        Post top = posts[0];
+        size--;
+        scores[0] = scores[size];
+        posts[0] = posts[size];
+        posts[size] = null;
+        if (size > 0) siftDown(0);
+        return top;
+    }
+
+    private void siftDown(int i) {
+        double score = scores[i];
+        Post post = posts[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && before(scores[right], scores[child])) child = right;
+            if (!before(scores[child], score)) break;
+            scores[i] = scores[child];
+            posts[i] = posts[child];
+            i = child;
+        }
+        scores[i] = score;
+        posts[i] = post;
+    }
+
+    private boolean before(double a, double b) {
+        return minHeap ? a < b : a > b;
+    }
+}
+
+// FeedRanker.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Weighted sum of PostScorers. Candidate sets above PARALLEL_THRESHOLD are
+// scored with fork/join; selection keeps the best k in a bounded min-heap.
+public final class FeedRanker {
+    static final int PARALLEL_THRESHOLD = 2048;
+    private static final int LEAF_SIZE = 512;
+
+    private final PostScorer[] scorers;
+    private final double[] weights;
+    private final ForkJoinPool pool;
+
+    public FeedRanker() {
+        this(new PostScorer[0], new double[0], ForkJoinPool.commonPool());
+    }
+
+    private FeedRanker(PostScorer[] scorers, double[] weights, ForkJoinPool pool) {
+        this.scorers = scorers;
+        this.weights = weights;
+        this.pool = pool;
+    }
+
+    public FeedRanker withScorer(PostScorer scorer, double weight) {
+        PostScorer[] nextScorers = Arrays.copyOf(scorers, scorers.length + 1);
+        double[] nextWeights = Arrays.copyOf(weights, weights.length + 1);
+        nextScorers[scorers.length] = scorer;
+        nextWeights[weights.length] = weight;
+        return new FeedRanker(nextScorers, nextWeights, pool);
+    }
+
+    public FeedRanker withPool(ForkJoinPool pool) {
+        return new FeedRanker(scorers, weights, pool);
+    }
+
+    public double score(Post post, RankingContext context) {
+        double total = 0;
+        for (int i = 0; i < scorers.length; i++) {
+            total += weights[i] * scorers[i].score(post, context);
+        }
+        return total;
+    }
+
+    public double[] scoreAll(List<Post> candidates, RankingContext context) {
+        double[] scores = new double[candidates.size()];
+        if (candidates.size() >= PARALLEL_THRESHOLD) {
+            pool.invoke(new ScoreTask(candidates, context, scores, 0, scores.length));
+        } else {
+            for (int i = 0; i < scores.length; i++) scores[i] = score(candidates.get(i), context);
+        }
+        return scores;
+    }
+
+    // The k best candidates, best first.
+    public List<Post> topK(List<Post> candidates, int k, RankingContext context) {
+        if (k <= 0 || candidates.isEmpty()) return Collections.emptyList();
+        return topK(candidates, scoreAll(candidates, context), k);
+    }
+
+    // The k best of candidates already scored by scoreAll, best first.
+    public static List<Post> topK(List<Post> candidates, double[] scores, int k) {
+        if (k <= 0 || candidates.isEmpty()) return Collections.emptyList();
+        ScoredPostHeap best = new ScoredPostHeap(Math.min(k, candidates.size()), true);
+        for (int i = 0; i < scores.length; i++) {
+            best.offerBounded(candidates.get(i), scores[i], k);
+        }
+        Post[] ranked = new Post[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) ranked[i] = best.poll();
+        return new ArrayList<>(Arrays.asList(ranked));
+    }
+
+    private final class ScoreTask extends RecursiveAction {
+        private final List<Post> candidates;
+        private final RankingContext context;
+        private final double[] scores;
+        private final int from;
+        private final int to;
+
+        ScoreTask(List<Post> candidates, RankingContext context, double[] scores, int from, int to) {
+            this.candidates = candidates;
+            this.context = context;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) scores[i] = score(candidates.get(i), context);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScoreTask(candidates, context, scores, from, mid),
+                    new ScoreTask(candidates, context, scores, mid, to));
+        }
+    }
+}
+
+// RankedFeedOrder.java
+package com.example.socialfeed.ranking;
+
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedCursor;
+import com.example.socialfeed.service.FeedException;
+import com.example.socialfeed.service.FeedOrder;
+import com.example.socialfeed.service.FeedPage;
+import com.example.socialfeed.service.PostStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Serves the feed in ranked rather than chronological order, as a FeedOrder
+// for any FeedService. A first page starts a session that pulls
+// candidateBatch posts from the store and scores them once; each page is the
+// topK of the candidates not served yet. When fewer than a page remain the
+// next batch is scored and joins the pool, so ranking continues
+// incrementally. Pages carry an opaque cursor naming the session and an
+// offset into its ranked order, so a retried or repeated cursor gets the
+// same page again. Posts that reach the store after a session started are
+// ranked by the next first page, not by sessions already open. The newest
+// MAX_SESSIONS sessions are kept; a cursor for an older one fails with
+// EXPIRED_CURSOR. A time cursor, such as one taken from a cached page,
+// continues in time order.
+public class RankedFeedOrder implements FeedOrder {
+    public static final int DEFAULT_CANDIDATE_BATCH = 5000;
+    public static final int MAX_SESSIONS = 8;
+
+    private final FeedRanker ranker;
+    private final int candidateBatch;
+    private long lastSessionId;
+    private final Map<Long, Session> sessions = new LinkedHashMap<Long, Session>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Session> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    private static final class Session {
+        final long id;
+        final RankingContext context = new RankingContext(System.currentTimeMillis());
+        // Every post served so far, in the order served.
+        final List<Post> ranked = new ArrayList<>();
+        List<Post> candidates = new ArrayList<>();
+        double[] scores = new double[0];
+        FeedCursor candidateCursor;
+        boolean moreCandidates = true;
+
+        Session(long id) {
+            this.id = id;
+        }
+
+        FeedCursor cursor(int offset) {
+            return FeedCursor.opaque(id + ":" + offset);
+        }
+    }
+
+    public RankedFeedOrder(FeedRanker ranker) {
+        this(ranker, DEFAULT_CANDIDATE_BATCH);
+    }
+
+    public RankedFeedOrder(FeedRanker ranker, int candidateBatch) {
+        if (candidateBatch <= 0) throw new IllegalArgumentException("candidateBatch must be positive: " + candidateBatch);
+        this.ranker = ranker;
+        this.candidateBatch = candidateBatch;
+    }
+
+    @Override
+    public synchronized FeedPage page(PostStore store, FeedCursor after, int limit) throws FeedException {
+        if (after != null && !after.isOpaque()) return store.page(after, limit);
+        Session session;
+        int offset;
+        if (after == null) {
+            session = new Session(++lastSessionId);
+            sessions.put(session.id, session);
+            offset = 0;
+        } else {
+            int separator = after.token.indexOf(':');
+            try {
+                session = separator < 0 ? null : sessions.get(Long.parseLong(after.token.substring(0, separator)));
+                offset = separator < 0 ? -1 : Integer.parseInt(after.token.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                session = null;
+                offset = -1;
+            }
+            if (session == null || offset < 0 || offset > session.ranked.size()) {
+                throw new FeedException(FeedException.Kind.EXPIRED_CURSOR, "Ranked session expired: " + after.token, null, 0);
+            }
+        }
+        int end = offset + limit;
+        while (session.ranked.size() < end && (!session.candidates.isEmpty() || session.moreCandidates)) {
+            int wanted = end - session.ranked.size();
+            while (session.candidates.size() < wanted && session.moreCandidates) addCandidates(store, session);
+            List<Post> next = FeedRanker.topK(session.candidates, session.scores, wanted);
+            removeServed(session, next);
+            session.ranked.addAll(next);
+        }
+        end = Math.min(end, session.ranked.size());
+        List<Post> page = new ArrayList<>(session.ranked.subList(offset, end));
+        boolean hasMore = end < session.ranked.size() || !session.candidates.isEmpty() || session.moreCandidates;
+        return new FeedPage(page, session.cursor(end), hasMore);
+    }
+
+    private void addCandidates(PostStore store, Session session) {
+        FeedPage batch = store.page(session.candidateCursor, candidateBatch);
+        double[] scores = ranker.scoreAll(batch.posts, session.context);
+        int size = session.candidates.size();
+        session.scores = Arrays.copyOf(session.scores, size + scores.length);
+        System.arraycopy(scores, 0, session.scores, size, scores.length);
+        session.candidates.addAll(batch.posts);
+        session.candidateCursor = batch.nextCursor;
+        session.moreCandidates = batch.hasMore && !batch.posts.isEmpty();
+    }
+
+    private static void removeServed(Session session, List<Post> page) {
+        Set<Post> served = new HashSet<>(page);
+        List<Post> remaining = new ArrayList<>(session.candidates.size() - page.size());
+        double[] scores = new double[session.candidates.size() - page.size()];
+        for (int i = 0; i < session.candidates.size(); i++) {
+            Post post = session.candidates.get(i);
+            if (served.contains(post)) continue;
+            scores[remaining.size()] = session.scores[i];
+            remaining.add(post);
+        }
+        session.candidates = remaining;
+        session.scores = scores;
+    }
+}
+
+// --- Engagement Package ---
+
+// EngagementDelta.java
+package com.example.socialfeed.engagement;
+
+public final class EngagementDelta {
+    public final String postId;
+    public final long likes;
+    public final long views;
+
+    public EngagementDelta(String postId, long likes, long views) {
+        this.postId = postId;
+        this.likes = likes;
+        this.views = views;
+    }
+}
+
+// EngagementSink.java
+package com.example.socialfeed.engagement;
+
+import java.util.List;
+
+public interface EngagementSink {
+    // Throwing keeps the deltas queued for the next flush.
+    void publish(List<EngagementDelta> deltas) throws Exception;
+}
+
+// EngagementStore.java
+package com.example.socialfeed.engagement;
+
+import com.example.socialfeed.ranking.EngagementScorer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Like and view counts per post. Increments land in LongAdders, which stripe
+// contended updates across cells, so a hot post does not serialize its
+// writers. Counts include local increments immediately; the unsent part is
+// tracked separately and flushed to a sink in batches.
+public class EngagementStore implements EngagementScorer.EngagementSource {
+    // Beyond this many distinct posts a session starts over, so an endless
+    // scroll cannot grow the set without bound.
+    public static final int MAX_VIEWS_PER_SESSION = 10_000;
+
+    private final ConcurrentHashMap<String, Counters> countersByPost = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Counters> dirty = new ConcurrentLinkedQueue<>();
+    private final Set<String> viewedThisSession = ConcurrentHashMap.newKeySet();
+
+    private static final class Counters {
+        final String postId;
+        final LongAdder likes = new LongAdder();
+        final LongAdder views = new LongAdder();
+        final LongAdder unsentLikes = new LongAdder();
+        final LongAdder unsentViews = new LongAdder();
+        final AtomicBoolean queued = new AtomicBoolean();
+
+        Counters(String postId) {
+            this.postId = postId;
+        }
+    }
+
+    public void like(String postId) {
+        Counters counters = countersFor(postId);
+        counters.likes.increment();
+        counters.unsentLikes.increment();
+        markDirty(counters);
+    }
+
+    // Counts a view once per post per session; returns false for repeats.
+    public boolean recordView(String postId) {
+        if (viewedThisSession.size() >= MAX_VIEWS_PER_SESSION) startNewSession();
+        if (!viewedThisSession.add(postId)) return false;
+        Counters counters = countersFor(postId);
+        counters.views.increment();
+        counters.unsentViews.increment();
+        markDirty(counters);
+        return true;
+    }
+
+    public void startNewSession() {
+        viewedThisSession.clear();
+    }
+
+    // Seeds server-confirmed totals, e.g. from a fetched page. Each count
+    // moves by one delta rather than a reset and an add, so an increment
+    // landing in between is neither wiped nor counted twice.
+    public void setConfirmed(String postId, long likes, long views) {
+        Counters counters = countersFor(postId);
+        counters.likes.add(likes + counters.unsentLikes.sum() - counters.likes.sum());
+        counters.views.add(views + counters.unsentViews.sum() - counters.views.sum());
+    }
+
+    public long likeCount(String postId) {
+        Counters counters = countersByPost.get(postId);
+        return counters == null ? 0 : counters.likes.sum();
+    }
+
+    public long viewCount(String postId) {
+        Counters counters = countersByPost.get(postId);
+        return counters == null ? 0 : counters.views.sum();
+    }
+
+    @Override
+    public long engagementOf(String postId) {
+        return likeCount(postId) + viewCount(postId);
+    }
+
+    // Sends every unsent delta in one batch. On failure the deltas go back.
+    public int flushTo(EngagementSink sink) {
+        List<Counters> flushed = new ArrayList<>();
+        List<EngagementDelta> deltas = new ArrayList<>();
+        for (Counters counters = dirty.poll(); counters != null; counters = dirty.poll()) {
+            counters.queued.set(false);
+            long likes = counters.unsentLikes.sumThenReset();
+            long views = counters.unsentViews.sumThenReset();
+            if (likes == 0 && views == 0) continue;
+            flushed.add(counters);
+            deltas.add(new EngagementDelta(counters.postId, likes, views));
+        }
+        if (deltas.isEmpty()) return 0;
+        try {
+            sink.publish(deltas);
+        } catch (Exception e) {
+            for (int i = 0; i < deltas.size(); i++) {
+                Counters counters = flushed.get(i);
+                counters.unsentLikes.add(deltas.get(i).likes);
+                counters.unsentViews.add(deltas.get(i).views);
+                markDirty(counters);
+            }
+            return 0;
+        }
+        return deltas.size();
+    }
+
+    public Flusher flushPeriodically(EngagementSink sink, long period, TimeUnit unit) {
+        return new Flusher(this, sink, period, unit);
+    }
+
+    private Counters countersFor(String postId) {
+        Counters counters = countersByPost.get(postId);
+        return counters != null ? counters : countersByPost.computeIfAbsent(postId, Counters::new);
+    }
+
+    private void markDirty(Counters counters) {
+        if (!counters.queued.get() && counters.queued.compareAndSet(false, true)) {
+            dirty.add(counters);
+        }
+    }
+
+    public static final class Flusher implements AutoCloseable {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "feed-engagement");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final EngagementStore store;
+        private final EngagementSink sink;
+        private final ScheduledFuture<?> task;
+
+        Flusher(EngagementStore store, EngagementSink sink, long period, TimeUnit unit) {
+            this.store = store;
+            this.sink = sink;
+            task = executor.scheduleWithFixedDelay(() -> store.flushTo(sink), period, period, unit);
+        }
+
+        // Stops the schedule and sends whatever is still unsent.
+        @Override
+        public void close() {
+            task.cancel(false);
+            executor.execute(() -> store.flushTo(sink));
+            executor.shutdown();
+        }
+    }
+}
+
+// --- Sync Package ---
+
+// FeedDelta.java
+package com.example.socialfeed.sync;
+
+import com.example.socialfeed.model.Post;
+import java.util.List;
+
+// Changes after a watermark, in server order. A reset delta means the
+// watermark was unknown and upserts is the head of the feed instead.
+public final class FeedDelta {
+    public final List<Post> upserts;
+    public final List<String> tombstones;
+    public final long watermark;
+    public final boolean hasMore;
+    public final boolean reset;
+
+    public FeedDelta(List<Post> upserts, List<String> tombstones, long watermark, boolean hasMore, boolean reset) {
+        this.upserts = upserts;
+        this.tombstones = tombstones;
+        this.watermark = watermark;
+        this.hasMore = hasMore;
+        this.reset = reset;
+    }
+}
+
+// FeedSource.java
+package com.example.socialfeed.sync;
+
+import com.example.socialfeed.engagement.EngagementDelta;
+import java.io.IOException;
+import java.util.List;
+
+public interface FeedSource {
+    long watermark() throws IOException;
+
+    // At most limit changes after watermark; watermark 0 asks for a reset.
+    FeedDelta changesSince(long watermark, int limit) throws IOException;
+
+    void push(List<EngagementDelta> writes) throws IOException;
+}
+
+// LocalFeedSource.java
+package com.example.socialfeed.sync;
+
+import com.example.socialfeed.engagement.EngagementDelta;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedCursor;
+import com.example.socialfeed.service.FeedPage;
+import com.example.socialfeed.service.PostStore;
+import com.example.socialfeed.service.SkipListPostStore;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Fake backend for offline-first sync. As the PostStore under FeedService it
+// serves ordinary pages, and every add, edit and delete also bumps a version
+// that changesSince reports. The change log keeps only the latest version of
+// each post, so it grows with distinct posts, not with edits.
+public class LocalFeedSource implements FeedSource, PostStore {
+    private final SkipListPostStore posts = new SkipListPostStore();
+    private final Map<String, Post> byId = new HashMap<>();
+    private final TreeMap<Long, String> changes = new TreeMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Set<String> deleted = new HashSet<>();
+    private final Map<String, Long> likes = new HashMap<>();
+    private long version;
+    private volatile boolean online = true;
+
+    // Also used for edits: a post with a known id replaces the old version.
+    @Override
+    public synchronized void add(Post post) {
+        Post previous = byId.put(post.id, post);
+        if (previous != null) posts.remove(previous);
+        posts.add(post);
+        deleted.remove(post.id);
+        record(post.id);
+    }
+
+    public synchronized void delete(String postId) {
+        Post previous = byId.remove(postId);
+        if (previous == null) return;
+        posts.remove(previous);
+        deleted.add(postId);
+        record(postId);
+    }
+
+    @Override
+    public int size() {
+        return posts.size();
+    }
+
+    @Override
+    public FeedPage page(FeedCursor after, int limit) {
+        return posts.page(after, limit);
+    }
+
+    // Simulates losing the network: every FeedSource call fails while offline.
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public synchronized long likesOf(String postId) {
+        return likes.getOrDefault(postId, 0L);
+    }
+
+    @Override
+    public synchronized long watermark() throws IOException {
+        checkOnline();
+        return version;
+    }
+
+    @Override
+    public synchronized FeedDelta changesSince(long watermark, int limit) throws IOException {
+        checkOnline();
+        if (watermark <= 0 || watermark > version) {
+            return new FeedDelta(posts.page(null, limit).posts, new ArrayList<>(), version, false, true);
+        }
+        List<Post> upserts = new ArrayList<>();
+        List<String> tombstones = new ArrayList<>();
+        long last = watermark;
+        Iterator<Map.Entry<Long, String>> it = changes.tailMap(watermark, false).entrySet().iterator();
+        while (it.hasNext() && upserts.size() + tombstones.size() < limit) {
+            Map.Entry<Long, String> change = it.next();
+            if (deleted.contains(change.getValue())) {
+                tombstones.add(change.getValue());
+            } else {
+                upserts.add(byId.get(change.getValue()));
+            }
+            last = change.getKey();
+        }
+        return new FeedDelta(upserts, tombstones, last, it.hasNext(), false);
+    }
+
+    @Override
+    public synchronized void push(List<EngagementDelta> writes) throws IOException {
+        checkOnline();
+        for (EngagementDelta write : writes) {
+            likes.merge(write.postId, write.likes, Long::sum);
+        }
+    }
+
+    private void record(String postId) {
+        Long previous = versions.put(postId, ++version);
+        if (previous != null) changes.remove(previous);
+        changes.put(version, postId);
+    }
+
+    private void checkOnline() throws IOException {
+        if (!online) throw new IOException("Offline");
+    }
+}
+
+// OfflineWriteQueue.java
+package com.example.socialfeed.sync;
+
+import com.example.socialfeed.engagement.EngagementDelta;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Engagement writes waiting for the backend, merged per post so a long
+// offline stretch costs one entry per post rather than one per tap.
+final class OfflineWriteQueue {
+    private final LinkedHashMap<String, EngagementDelta> pending = new LinkedHashMap<>();
+
+    synchronized void enqueue(List<EngagementDelta> writes) {
+        for (EngagementDelta write : writes) {
+            pending.merge(write.postId, write,
+                    (a, b) -> new EngagementDelta(a.postId, a.likes + b.likes, a.views + b.views));
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    // Sends everything queued; on failure the writes go back, in order, ahead of newer ones.
+    void replay(FeedSource source) throws IOException {
+        List<EngagementDelta> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        try {
+            source.push(batch);
+        } catch (IOException e) {
+            synchronized (this) {
+                LinkedHashMap<String, EngagementDelta> newer = new LinkedHashMap<>(pending);
+                pending.clear();
+                enqueue(batch);
+                enqueue(new ArrayList<>(newer.values()));
+            }
+            throw e;
+        }
+    }
+}
+
+// FeedSyncEngine.java
+package com.example.socialfeed.sync;
+
+import com.example.socialfeed.engagement.EngagementDelta;
+import com.example.socialfeed.engagement.EngagementSink;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedCursor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps a local feed in step with a FeedSource through deltas. A refresh
+// first replays queued writes, then pulls every change after the
+// watermark and merges it into the caller's list by Post.id: edits replace
+// in place, tombstones remove, new posts are merged in by cursor, so the
+// list must be in FeedOrder.CHRONOLOGICAL order. When the source no longer
+// knows the watermark it sends the head of the feed instead, and that
+// replaces the list outright, since deletions in between will never arrive
+// as tombstones. Work runs on one thread, so refreshes and replays never
+// overlap.
+public class FeedSyncEngine implements EngagementSink, AutoCloseable {
+    public static final int DEFAULT_DELTA_LIMIT = 200;
+    private static final int MAX_DELTA_ROUNDS = 50;
+
+    private final FeedSource source;
+    private final int deltaLimit;
+    private final OfflineWriteQueue writes = new OfflineWriteQueue();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "feed-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long watermark;
+
+    public static final class SyncResult {
+        public final List<Post> posts;
+        public final List<Post> inserted;
+        // Loaded posts replaced by a newer version.
+        public final List<Post> updated;
+        // Ids of loaded posts no longer in posts.
+        public final List<String> removed;
+        public final long watermark;
+        // posts is the head of the feed, not the caller's list updated; paging restarts after it.
+        public final boolean reset;
+
+        SyncResult(List<Post> posts, List<Post> inserted, List<Post> updated, List<String> removed, long watermark, boolean reset) {
+            this.posts = posts;
+            this.inserted = inserted;
+            this.updated = updated;
+            this.removed = removed;
+            this.watermark = watermark;
+            this.reset = reset;
+        }
+    }
+
+    public FeedSyncEngine(FeedSource source) {
+        this(source, DEFAULT_DELTA_LIMIT);
+    }
+
+    public FeedSyncEngine(FeedSource source, int deltaLimit) {
+        this.source = source;
+        this.deltaLimit = deltaLimit;
+    }
+
+    public long watermark() {
+        return watermark;
+    }
+
+    public int pendingWrites() {
+        return writes.size();
+    }
+
+    // Call before a full reload so the next refresh asks only for what
+    // changed after it. Taken before the page, so overlap is merged by id.
+    public CompletableFuture<Long> rebase() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                watermark = source.watermark();
+                return watermark;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    public CompletableFuture<SyncResult> refresh(List<Post> current) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return sync(current);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    // Queues the writes and tries to send them straight away; while offline
+    // they wait for the next refresh. Never throws, so callers don't re-send.
+    @Override
+    public void publish(List<EngagementDelta> deltas) {
+        writes.enqueue(deltas);
+        executor.execute(() -> {
+            try {
+                writes.replay(source);
+            } catch (IOException e) {
+                // Still queued.
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private SyncResult sync(List<Post> current) throws IOException {
+        writes.replay(source);
+        Map<String, Post> upserts = new LinkedHashMap<>();
+        Set<String> tombstones = new HashSet<>();
+        long mark = watermark;
+        for (int round = 0; round < MAX_DELTA_ROUNDS; round++) {
+            FeedDelta delta = source.changesSince(mark, deltaLimit);
+            if (delta.reset) {
+                SyncResult result = replace(current, delta.upserts, delta.watermark);
+                watermark = delta.watermark;
+                return result;
+            }
+            for (String id : delta.tombstones) {
+                upserts.remove(id);
+                tombstones.add(id);
+            }
+            for (Post post : delta.upserts) {
+                tombstones.remove(post.id);
+                upserts.put(post.id, post);
+            }
+            mark = delta.watermark;
+            if (!delta.hasMore) break;
+        }
+        SyncResult result = merge(current, upserts, tombstones, mark);
+        watermark = mark;
+        return result;
+    }
+
+    static SyncResult merge(List<Post> current, Map<String, Post> upserts, Set<String> tombstones, long watermark) {
+        Map<String, Post> pending = new LinkedHashMap<>(upserts);
+        List<Post> kept = new ArrayList<>(current.size());
+        List<Post> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Post post : current) {
+            if (tombstones.contains(post.id)) {
+                removed.add(post.id);
+                continue;
+            }
+            Post replacement = pending.remove(post.id);
+            if (replacement != null && replacement != post) updated.add(replacement);
+            kept.add(replacement != null ? replacement : post);
+        }
+        // Posts older than everything loaded arrive with normal paging instead.
+        FeedCursor oldest = current.isEmpty() ? null : FeedCursor.of(current.get(current.size() - 1));
+        List<Post> inserted = new ArrayList<>();
+        for (Post post : pending.values()) {
+            if (oldest == null || FeedCursor.of(post).compareTo(oldest) < 0) inserted.add(post);
+        }
+        inserted.sort((a, b) -> FeedCursor.of(a).compareTo(FeedCursor.of(b)));
+
+        List<Post> merged = new ArrayList<>(kept.size() + inserted.size());
+        int i = 0;
+        int j = 0;
+        while (i < kept.size() || j < inserted.size()) {
+            if (j == inserted.size() || (i < kept.size()
+                    && FeedCursor.of(kept.get(i)).compareTo(FeedCursor.of(inserted.get(j))) <= 0)) {
+                merged.add(kept.get(i++));
+            } else {
+                merged.add(inserted.get(j++));
+            }
+        }
+        return new SyncResult(merged, Collections.unmodifiableList(inserted), Collections.unmodifiableList(updated),
+                Collections.unmodifiableList(removed), watermark, false);
+    }
+
+    // removed lists loaded posts missing from the head, whether deleted or just further down.
+    static SyncResult replace(List<Post> current, List<Post> head, long watermark) {
+        Map<String, Post> loaded = new HashMap<>(current.size() * 2);
+        for (Post post : current) loaded.put(post.id, post);
+        List<Post> inserted = new ArrayList<>();
+        List<Post> updated = new ArrayList<>();
+        for (Post post : head) {
+            Post previous = loaded.remove(post.id);
+            if (previous == null) {
+                inserted.add(post);
+            } else if (previous != post) {
+                updated.add(post);
+            }
+        }
+        return new SyncResult(new ArrayList<>(head), Collections.unmodifiableList(inserted), Collections.unmodifiableList(updated),
+                Collections.unmodifiableList(new ArrayList<>(loaded.keySet())), watermark, true);
+    }
+}
+
+// --- ViewModel Package ---
+
+// FeedViewModel.java
+package com.example.socialfeed.viewmodel;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+import com.example.socialfeed.engagement.EngagementSink;
+import com.example.socialfeed.engagement.EngagementStore;
+import com.example.socialfeed.metrics.FeedMetrics;
+import com.example.socialfeed.model.ChunkedPostList;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.model.PostIdIndex;
+import com.example.socialfeed.search.PostSearchIndex;
+import com.example.socialfeed.service.FeedCursor;
+import com.example.socialfeed.service.FeedException;
+import com.example.socialfeed.service.FeedOrder;
+import com.example.socialfeed.service.FeedPage;
+import com.example.socialfeed.service.FeedService;
+import com.example.socialfeed.service.FetchHandle;
+import com.example.socialfeed.service.PostBatcher;
+import com.example.socialfeed.sync.FeedSyncEngine;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Feed state (feed, feedIndex, cursors, generation, prefetch) belongs to the
+// main thread: fetch and sync results are handed over to it before they
+// touch anything, so LiveData is only ever set from there.
+public class FeedViewModel extends ViewModel {
+    private final FeedService feedService;
+    // Only a service created here is closed here; an injected one may be
+    // shared by other ViewModels and belongs to whoever created it.
+    private boolean ownsFeedService;
+    private final FeedSyncEngine syncEngine;
+    private final Executor mainThread;
+
+    private final MutableLiveData<List<Post>> _posts = new MutableLiveData<>(ChunkedPostList.empty());
+    public final LiveData<List<Post>> posts = _posts;
+
+    private final MutableLiveData<Boolean> _isLoading = new MutableLiveData<>(false);
+    public final LiveData<Boolean> isLoading = _isLoading;
+
+    private final MutableLiveData<FeedException> _error = new MutableLiveData<>(null);
+    public final LiveData<FeedException> error = _error;
+
+    // True while the feed shows saved posts because the backend is failing.
+    private final MutableLiveData<Boolean> _showingSavedPosts = new MutableLiveData<>(false);
+    public final LiveData<Boolean> showingSavedPosts = _showingSavedPosts;
+
+    // Posts that arrived on the live stream and are waiting for showNewPosts().
+    private final MutableLiveData<Integer> _newPostCount = new MutableLiveData<>(0);
+    public final LiveData<Integer> newPostCount = _newPostCount;
+
+    private static final int LIVE_BATCH_SIZE = 50;
+    private static final long LIVE_BATCH_WINDOW_MILLIS = 500;
+    private static final int LIVE_BUFFER_CAPACITY = 200;
+    private static final int MAX_PENDING_NEW_POSTS = 500;
+    private final ArrayDeque<Post> pendingNewPosts = new ArrayDeque<>();
+    private PostBatcher liveBatcher;
+
+    private final PostSearchIndex searchIndex = new PostSearchIndex();
+
+    private static final long ENGAGEMENT_FLUSH_SECONDS = 10;
+    private final EngagementStore engagement = new EngagementStore();
+    private final EngagementStore.Flusher engagementFlusher;
+
+    private ChunkedPostList feed = ChunkedPostList.empty();
+    // Position of every post in feed, for de-duplication and update by id.
+    private final PostIdIndex feedIndex = new PostIdIndex();
+    private boolean isMoreDataAvailable = true;
+    private FeedCursor nextCursor;
+    // Scrolling does not fetch more before this time (epoch millis), so a
+    // failing backend is not asked again on every scroll event.
+    private long retryNotBefore;
+
+    // Bumped on every refresh so callbacks from superseded fetches are dropped.
+    private int generation;
+    private FetchHandle initialFetch;
+    private FetchHandle moreFetch;
+    private final PrefetchController prefetch = new PrefetchController();
+    private static final int MEDIA_PREFETCH_ROWS = FeedService.DEFAULT_PAGE_SIZE;
+    private MediaPrefetcher mediaPrefetcher;
+
+    public FeedViewModel() {
+        this(new FeedService());
+        ownsFeedService = true;
+    }
+
+    public FeedViewModel(FeedService feedService) {
+        this(feedService, null);
+    }
+
+    // With a sync engine, refresh() pulls deltas and likes go through its offline queue.
+    public FeedViewModel(FeedService feedService, FeedSyncEngine syncEngine) {
+        this(feedService, syncEngine, new Handler(Looper.getMainLooper())::post);
+    }
+
+    // mainThread runs every fetch and sync result; a direct executor suits single-threaded tests.
+    public FeedViewModel(FeedService feedService, FeedSyncEngine syncEngine, Executor mainThread) {
+        this.feedService = feedService;
+        this.syncEngine = syncEngine;
+        this.mainThread = mainThread;
+        EngagementSink sink = syncEngine != null ? syncEngine : feedService::submitEngagement;
+        this.engagementFlusher = engagement.flushPeriodically(sink, ENGAGEMENT_FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void setMediaPrefetcher(MediaPrefetcher mediaPrefetcher) {
+        if (this.mediaPrefetcher != null) this.mediaPrefetcher.cancelAll();
+        this.mediaPrefetcher = mediaPrefetcher;
+    }
+
+    public void loadInitialPosts() {
+        cancel(initialFetch);
+        cancel(moreFetch);
+        prefetch.reset();
+        engagement.startNewSession();
+        if (mediaPrefetcher != null) mediaPrefetcher.cancelAll();
+        if (syncEngine != null) syncEngine.rebase();
+        final int requestGeneration = ++generation;
+        _isLoading.setValue(true);
+
+        initialFetch = feedService.fetchInitialPosts(onMainThread(new FeedService.FeedCallback() {
+            @Override
+            public void onSuccess(FeedPage page) {
+                if (requestGeneration != generation) return;
+                prefetchMedia(page);
+                searchIndex.addAll(page.posts);
+                if (!page.fromCache && page.degradedBy == null) clearPendingNewPosts();
+                long mergeStart = System.nanoTime();
+                feed = ChunkedPostList.empty();
+                feedIndex.clear();
+                merge(page.posts);
+                _posts.setValue(feed);
+                FeedMetrics.get().recordMerge(System.nanoTime() - mergeStart);
+                nextCursor = page.nextCursor;
+                isMoreDataAvailable = page.hasMore;
+                if (!page.fromCache) {
+                    onPageSource(page);
+                    _isLoading.setValue(false);
+                }
+            }
+            @Override
+            public void onError(Exception e) {
+                if (requestGeneration != generation) return;
+                onFetchFailed(FeedException.from(e));
+                _isLoading.setValue(false);
+            }
+        }));
+    }
+
+    // Pull-to-refresh. With a sync engine and a loaded feed only the changes
+    // since the last sync are fetched and merged; otherwise a full reload.
+    // Deltas merge in time order, so a feed in any other order reloads too,
+    // which also ranks whatever arrived since from the top.
+    public void refresh() {
+        if (syncEngine == null || feed.isEmpty() || feedService.order() != FeedOrder.CHRONOLOGICAL) {
+            loadInitialPosts();
+            return;
+        }
+        cancel(initialFetch);
+        cancel(moreFetch);
+        engagement.startNewSession();
+        final int requestGeneration = ++generation;
+        _isLoading.setValue(true);
+        syncEngine.refresh(feed).whenCompleteAsync((result, error) -> {
+            if (requestGeneration != generation) return;
+            if (error != null) {
+                onFetchFailed(FeedException.from(error));
+                _isLoading.setValue(false);
+                return;
+            }
+            searchIndex.removeAll(result.removed);
+            searchIndex.addAll(result.inserted);
+            searchIndex.addAll(result.updated);
+            clearPendingNewPosts();
+            long mergeStart = System.nanoTime();
+            feed = ChunkedPostList.empty();
+            feedIndex.clear();
+            merge(result.posts);
+            _posts.setValue(feed);
+            FeedMetrics.get().recordMerge(System.nanoTime() - mergeStart);
+            if (result.reset) {
+                nextCursor = feed.isEmpty() ? null : FeedCursor.of(feed.get(feed.size() - 1));
+                isMoreDataAvailable = true;
+            }
+            _isLoading.setValue(false);
+        }, mainThread);
+    }
+
+    public void onScrolled(int lastVisiblePosition, int itemCount) {
+        if (prefetch.onScrolled(lastVisiblePosition, itemCount)) {
+            loadMorePosts();
+        }
+    }
+
+    public void loadMorePosts() {
+        if (Boolean.TRUE.equals(_isLoading.getValue()) || !isMoreDataAvailable) return;
+        if (System.currentTimeMillis() < retryNotBefore) return;
+        final int requestGeneration = generation;
+        _isLoading.setValue(true);
+        prefetch.onFetchStarted();
+
+        moreFetch = feedService.fetchMorePosts(nextCursor, onMainThread(new FeedService.FeedCallback() {
+            @Override
+            public void onSuccess(FeedPage page) {
+                if (requestGeneration != generation) return;
+                prefetchMedia(page);
+                searchIndex.addAll(page.posts);
+                if (!page.posts.isEmpty()) {
+                    long mergeStart = System.nanoTime();
+                    if (merge(page.posts)) _posts.setValue(feed);
+                    FeedMetrics.get().recordMerge(System.nanoTime() - mergeStart);
+                }
+                nextCursor = page.nextCursor;
+                isMoreDataAvailable = page.hasMore;
+                onPageSource(page);
+                prefetch.onFetchFinished();
+                _isLoading.setValue(false);
+            }
+            @Override
+            public void onError(Exception e) {
+                if (requestGeneration != generation) return;
+                prefetch.onFetchFailed();
+                FeedException failure = FeedException.from(e);
+                // Asking again with the same cursor cannot succeed; refresh starts over.
+                if (failure.kind == FeedException.Kind.EXPIRED_CURSOR) isMoreDataAvailable = false;
+                onFetchFailed(failure);
+                _isLoading.setValue(false);
+            }
+        }));
+    }
+
+    // User-initiated: skips the wait a failure imposed on scrolling.
+    public void retry() {
+        retryNotBefore = 0;
+        if (feed.isEmpty()) {
+            loadInitialPosts();
+        } else {
+            loadMorePosts();
+        }
+    }
+
+    public void startLiveUpdates() {
+        if (liveBatcher != null) return;
+        liveBatcher = new PostBatcher(LIVE_BATCH_SIZE, LIVE_BATCH_WINDOW_MILLIS, LIVE_BUFFER_CAPACITY, this::onNewPostBatch);
+        feedService.newPosts().subscribe(liveBatcher);
+    }
+
+    public void stopLiveUpdates() {
+        if (liveBatcher == null) return;
+        liveBatcher.close();
+        liveBatcher = null;
+    }
+
+    // Merges the buffered live posts on top of the feed in one update.
+    public void showNewPosts() {
+        List<Post> fresh;
+        synchronized (pendingNewPosts) {
+            if (pendingNewPosts.isEmpty()) return;
+            fresh = new ArrayList<>(pendingNewPosts.size() + feed.size());
+            for (Post post : pendingNewPosts) {
+                if (!updateInPlace(post)) fresh.add(post);
+            }
+            pendingNewPosts.clear();
+        }
+        // Prepending shifts every position, so the index is rebuilt.
+        fresh.addAll(feed);
+        feed = ChunkedPostList.empty();
+        feedIndex.clear();
+        merge(fresh);
+        _posts.setValue(feed);
+        _newPostCount.setValue(0);
+    }
+
+    // Index of the post with this id in the current feed, or -1.
+    public int positionOf(String postId) {
+        return feedIndex.get(postId);
+    }
+
+    public void likePost(String postId) {
+        engagement.like(postId);
+    }
+
+    public void onPostViewed(String postId) {
+        engagement.recordView(postId);
+    }
+
+    public long likeCount(String postId) {
+        return engagement.likeCount(postId);
+    }
+
+    public long viewCount(String postId) {
+        return engagement.viewCount(postId);
+    }
+
+    public EngagementStore getEngagement() {
+        return engagement;
+    }
+
+    // Newest matches among every post loaded, cached or streamed so far.
+    public List<Post> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    private void onNewPostBatch(List<Post> batch) {
+        searchIndex.addAll(batch);
+        synchronized (pendingNewPosts) {
+            for (Post post : batch) pendingNewPosts.addFirst(post);
+            while (pendingNewPosts.size() > MAX_PENDING_NEW_POSTS) pendingNewPosts.removeLast();
+            _newPostCount.postValue(pendingNewPosts.size());
+        }
+    }
+
+    // Appends unseen posts and replaces posts already in the feed with the
+    // newer version; a repeat within the same batch is dropped. Returns false
+    // if nothing changed.
+    private boolean merge(List<Post> page) {
+        List<Post> appended = new ArrayList<>(page.size());
+        boolean updated = false;
+        for (Post post : page) {
+            int position = feedIndex.get(post.id);
+            if (position < 0) {
+                feedIndex.put(post.id, feed.size() + appended.size());
+                appended.add(post);
+            } else if (position < feed.size()) {
+                updated |= updateInPlace(post);
+            }
+        }
+        feed = feed.appendAll(appended);
+        return updated || !appended.isEmpty();
+    }
+
+    private boolean updateInPlace(Post post) {
+        int position = feedIndex.get(post.id);
+        if (position < 0) return false;
+        if (feed.get(position) != post) feed = feed.with(position, post);
+        return true;
+    }
+
+    private void onPageSource(FeedPage page) {
+        boolean saved = page.degradedBy != null;
+        if (saved) holdOff(page.degradedBy);
+        if (saved != Boolean.TRUE.equals(_showingSavedPosts.getValue())) _showingSavedPosts.setValue(saved);
+    }
+
+    // An interrupted fetch was abandoned on purpose and is not shown.
+    private void onFetchFailed(FeedException failure) {
+        holdOff(failure);
+        if (failure.kind != FeedException.Kind.INTERRUPTED) _error.setValue(failure);
+    }
+
+    private void holdOff(FeedException failure) {
+        retryNotBefore = System.currentTimeMillis() + failure.retryAfterMillis;
+    }
+
+    private void clearPendingNewPosts() {
+        synchronized (pendingNewPosts) {
+            pendingNewPosts.clear();
+            _newPostCount.postValue(0);
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        stopLiveUpdates();
+        engagementFlusher.close();
+        if (syncEngine != null) syncEngine.close();
+        if (ownsFeedService) feedService.close();
+        if (mediaPrefetcher != null) mediaPrefetcher.cancelAll();
+    }
+
+    private void prefetchMedia(FeedPage page) {
+        MediaPrefetcher prefetcher = mediaPrefetcher;
+        if (prefetcher != null && !page.posts.isEmpty()) {
+            prefetcher.prefetch(MediaPrefetchPlanner.plan(page.posts, MEDIA_PREFETCH_ROWS));
+        }
+    }
+
+    private FeedService.FeedCallback onMainThread(FeedService.FeedCallback callback) {
+        return new FeedService.FeedCallback() {
+            @Override
+            public void onSuccess(FeedPage page) {
+                mainThread.execute(() -> callback.onSuccess(page));
+            }
+            @Override
+            public void onError(Exception e) {
+                mainThread.execute(() -> callback.onError(e));
+            }
+        };
+    }
+
+    private static void cancel(FetchHandle handle) {
+        if (handle != null) handle.cancel();
+    }
+}
+
+
+// PrefetchController.java
+package com.example.socialfeed.viewmodel;
+
+import java.util.function.LongSupplier;
+
+// Decides when to request the next page so that it lands before the viewport
+// reaches the end. Tracks scroll velocity (rows/s) and page fetch latency as
+// moving averages and fires once the rows left would be consumed within the
+// expected fetch time. Pure Java so it can be driven by a fake clock.
+public class PrefetchController {
+    public static final int DEFAULT_MIN_DISTANCE = 5;
+    public static final int DEFAULT_MAX_DISTANCE = 60;
+    private static final double SMOOTHING = 0.3;
+    private static final double SAFETY_FACTOR = 1.5;
+    private static final long IDLE_NANOS = 1_000_000_000L;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int minDistance;
+    private final int maxDistance;
+    private final LongSupplier clock;
+
+    private double rowsPerSecond;
+    private double fetchLatencySeconds = 2.0;
+    private int lastPosition = -1;
+    private long lastScrollAt;
+    private boolean inFlight;
+    private long fetchStartedAt;
+
+    public PrefetchController() {
+        this(DEFAULT_MIN_DISTANCE, DEFAULT_MAX_DISTANCE, System::nanoTime);
+    }
+
+    // minDistance: always prefetch this close to the end. maxDistance: never prefetch further away.
+    public PrefetchController(int minDistance, int maxDistance, LongSupplier clock) {
+        if (minDistance < 0 || maxDistance < minDistance) {
+            throw new IllegalArgumentException("Invalid prefetch distances: " + minDistance + ", " + maxDistance);
+        }
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        this.clock = clock;
+    }
+
+    // Feed a scroll observation; true when the next page should be requested now.
+    public boolean onScrolled(int lastVisiblePosition, int itemCount) {
+        long now = clock.getAsLong();
+        updateVelocity(lastVisiblePosition, now);
+        if (inFlight || itemCount == 0 || lastVisiblePosition < 0) return false;
+
+        int remaining = itemCount - 1 - lastVisiblePosition;
+        if (remaining <= minDistance) return true;
+        if (remaining > maxDistance || rowsPerSecond <= 0) return false;
+        double secondsUntilEnd = remaining / rowsPerSecond;
+        return secondsUntilEnd <= fetchLatencySeconds * SAFETY_FACTOR;
+    }
+
+    public void onFetchStarted() {
+        inFlight = true;
+        fetchStartedAt = clock.getAsLong();
+    }
+
+    public void onFetchFinished() {
+        if (!inFlight) return;
+        inFlight = false;
+        double latency = (clock.getAsLong() - fetchStartedAt) / NANOS_PER_SECOND;
+        fetchLatencySeconds += SMOOTHING * (latency - fetchLatencySeconds);
+    }
+
+    public void onFetchFailed() {
+        inFlight = false;
+    }
+
+    public void reset() {
+        inFlight = false;
+        rowsPerSecond = 0;
+        lastPosition = -1;
+    }
+
+    public boolean isInFlight() {
+        return inFlight;
+    }
+
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public double getFetchLatencySeconds() {
+        return fetchLatencySeconds;
+    }
+
+    private void updateVelocity(int position, long now) {
+        if (lastPosition >= 0) {
+            long elapsed = now - lastScrollAt;
+            if (elapsed >= IDLE_NANOS) {
+                rowsPerSecond = 0;
+            } else if (elapsed > 0) {
+                double instant = Math.max(0, position - lastPosition) * NANOS_PER_SECOND / elapsed;
+                rowsPerSecond += SMOOTHING * (instant - rowsPerSecond);
+            }
+        }
+        if (lastPosition < 0 || now != lastScrollAt) {
+            lastPosition = position;
+            lastScrollAt = now;
+        }
+    }
+}
+
+// MediaRequest.java
+package com.example.socialfeed.viewmodel;
+
+public final class MediaRequest {
+    public enum Kind { AVATAR, IMAGE, VIDEO_THUMBNAIL }
+
+    public final String url;
+    public final Kind kind;
+    // Row offset from the start of the page; lower rows are shown sooner.
+    public final int row;
+
+    public MediaRequest(String url, Kind kind, int row) {
+        this.url = url;
+        this.kind = kind;
+        this.row = row;
+    }
+}
+
+// MediaPrefetcher.java
+package com.example.socialfeed.viewmodel;
+
+import java.util.List;
+
+// Warms decoded media before rows bind. Implementations live in the view layer.
+public interface MediaPrefetcher {
+    // Requests are ordered by row, nearest first, and hold each URL and kind at most once.
+    void prefetch(List<MediaRequest> requests);
+    void cancelAll();
+}
+
+// MediaPrefetchPlanner.java
+package com.example.socialfeed.viewmodel;
+
+import com.example.socialfeed.model.ImageContent;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.model.VideoContent;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class MediaPrefetchPlanner {
+    private MediaPrefetchPlanner() {}
+
+    // Media for the first maxRows posts of a page, each URL once per kind.
+    public static List<MediaRequest> plan(List<Post> page, int maxRows) {
+        int rows = Math.min(maxRows, page.size());
+        List<MediaRequest> requests = new ArrayList<>(rows * 2);
+        Set<String> seen = new HashSet<>();
+        for (int row = 0; row < rows; row++) {
+            Post post = page.get(row);
+            add(requests, seen, post.author.avatarURL, MediaRequest.Kind.AVATAR, row);
+            if (post.content instanceof ImageContent) {
+                add(requests, seen, ((ImageContent) post.content).imageURL, MediaRequest.Kind.IMAGE, row);
+            } else if (post.content instanceof VideoContent) {
+                add(requests, seen, ((VideoContent) post.content).thumbnailURL, MediaRequest.Kind.VIDEO_THUMBNAIL, row);
+            }
+        }
+        return requests;
+    }
+
+    private static void add(List<MediaRequest> requests, Set<String> seen, String url, MediaRequest.Kind kind, int row) {
+        if (url == null || url.isEmpty()) return;
+        if (seen.add(kind.ordinal() + url)) requests.add(new MediaRequest(url, kind, row));
+    }
+}
+
+// --- View Package (Activity, Adapter, ViewHolders) ---
+
+// FeedActivity.java
+package com.example.socialfeed.view;
+
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.view.View;
+import android.widget.ProgressBar;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
+import com.example.socialfeed.R;
+import com.example.socialfeed.ranking.EngagementScorer;
+import com.example.socialfeed.ranking.FeedRanker;
+import com.example.socialfeed.ranking.RankedFeedOrder;
+import com.example.socialfeed.ranking.RecencyDecayScorer;
+import com.example.socialfeed.service.CachingFeedService;
+import com.example.socialfeed.service.FeedCache;
+import com.example.socialfeed.service.FeedException;
+import com.example.socialfeed.service.FeedJournal;
+import com.example.socialfeed.sync.FeedSyncEngine;
+import com.example.socialfeed.sync.LocalFeedSource;
+import com.example.socialfeed.viewmodel.FeedViewModel;
+import com.google.android.material.snackbar.Snackbar;
+import java.io.File;
+
+public class FeedActivity extends AppCompatActivity {
+    private static final long RANKING_HALF_LIFE_MILLIS = 6L * 3600 * 1000;
+
+    private FeedViewModel viewModel;
+    private FeedAdapter feedAdapter;
+    private SwipeRefreshLayout swipeRefreshLayout;
+    private ProgressBar bottomProgressBar;
+    private Snackbar newPostsSnackbar;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_feed);
+
+        FeedCache cache = new FeedCache(new File(getCacheDir(), "feed"));
+        FeedJournal journal = new FeedJournal(new File(getFilesDir(), "journal"));
+        viewModel = new ViewModelProvider(this, new ViewModelProvider.Factory() {
+            @NonNull
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                LocalFeedSource backend = new LocalFeedSource();
+                CachingFeedService service = new CachingFeedService(cache, journal, backend);
+                FeedViewModel model = new FeedViewModel(service, new FeedSyncEngine(backend));
+                model.addCloseable(service::close);
+                service.setOrder(new RankedFeedOrder(new FeedRanker()
+                        .withScorer(new RecencyDecayScorer(RANKING_HALF_LIFE_MILLIS), 1.0)
+                        .withScorer(new EngagementScorer(model.getEngagement()), 0.25)));
+                return (T) model;
+            }
+        }).get(FeedViewModel.class);
+
+        setupUI();
+        observeViewModel();
+
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int mediaWidth = metrics.widthPixels - Math.round(16 * metrics.density);
+        viewModel.setMediaPrefetcher(new GlideMediaPrefetcher(this, Math.round(40 * metrics.density), mediaWidth, mediaWidth * 9 / 16));
+
+        if (viewModel.posts.getValue() == null || viewModel.posts.getValue().isEmpty()) {
+            viewModel.loadInitialPosts();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        viewModel.startLiveUpdates();
+        feedAdapter.startTimeUpdates();
+    }
+
+    @Override
+    protected void onStop() {
+        feedAdapter.stopTimeUpdates();
+        viewModel.stopLiveUpdates();
+        super.onStop();
+    }
+
+    private void setupUI() {
+        swipeRefreshLayout = findViewById(R.id.swipe_refresh_layout);
+        bottomProgressBar = findViewById(R.id.bottom_progress_bar);
+        RecyclerView recyclerView = findViewById(R.id.recycler_view_feed);
+        
+        feedAdapter = new FeedAdapter();
+        feedAdapter.setOnPostShownListener(postId -> viewModel.onPostViewed(postId));
+        recyclerView.setAdapter(feedAdapter);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        PostHolderRegistry.applyPoolHints(recyclerView);
+
+        swipeRefreshLayout.setOnRefreshListener(() -> viewModel.refresh());
+
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null) {
+                    viewModel.onScrolled(layoutManager.findLastVisibleItemPosition(), feedAdapter.getItemCount());
+                }
+            }
+        });
+    }
+
+    private void observeViewModel() {
+        viewModel.posts.observe(this, posts -> feedAdapter.submitList(posts));
+
+        viewModel.isLoading.observe(this, isLoading -> {
+            if (!isLoading) {
+                swipeRefreshLayout.setRefreshing(false);
+            }
+            boolean showBottomLoader = isLoading && feedAdapter.getItemCount() > 0;
+            bottomProgressBar.setVisibility(showBottomLoader ? View.VISIBLE : View.GONE);
+        });
+
+        viewModel.newPostCount.observe(this, count -> {
+            if (count == null || count == 0) {
+                if (newPostsSnackbar != null) newPostsSnackbar.dismiss();
+                newPostsSnackbar = null;
+                return;
+            }
+            if (newPostsSnackbar != null) newPostsSnackbar.dismiss();
+            newPostsSnackbar = Snackbar.make(findViewById(android.R.id.content), count + " new posts", Snackbar.LENGTH_INDEFINITE)
+                    .setAction("Show", v -> viewModel.showNewPosts());
+            newPostsSnackbar.show();
+        });
+
+        viewModel.error.observe(this, error -> {
+            if (error == null) return;
+            Snackbar snackbar = Snackbar.make(findViewById(android.R.id.content), messageFor(error), Snackbar.LENGTH_LONG);
+            if (error.isRetryable()) snackbar.setAction("Retry", v -> viewModel.retry());
+            snackbar.show();
+        });
+
+        viewModel.showingSavedPosts.observe(this, saved -> {
+            if (Boolean.TRUE.equals(saved)) {
+                Snackbar.make(findViewById(android.R.id.content), "Can't reach the feed. Showing saved posts.", Snackbar.LENGTH_LONG)
+                        .setAction("Retry", v -> viewModel.retry())
+                        .show();
+            }
+        });
+    }
+
+    private static String messageFor(FeedException error) {
+        switch (error.kind) {
+            case TIMEOUT:
+                return "The feed is taking too long to respond";
+            case EXPIRED_CURSOR:
+                return "The feed has changed. Pull to refresh";
+            case CIRCUIT_OPEN:
+                long seconds = Math.max(1, (error.retryAfterMillis + 999) / 1000);
+                return "The feed is unavailable. Try again in " + seconds + "s";
+            default:
+                return "Couldn't load posts";
+        }
+    }
+}
+
+// FeedAdapter.java
+package com.example.socialfeed.view;
+
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.socialfeed.metrics.FeedMetrics;
+import com.example.socialfeed.model.Post;
+import java.util.List;
+
+// Binds precomputed PostRowModels; all formatting happens on the diff thread.
+public class FeedAdapter extends RecyclerView.Adapter<BasePostViewHolder> {
+    private final FeedListDiffer differ = new FeedListDiffer(this, new PostRowMapper());
+    private OnPostShownListener onPostShownListener;
+
+    public interface OnPostShownListener {
+        void onPostShown(String postId);
+    }
+
+    public void setOnPostShownListener(OnPostShownListener listener) {
+        this.onPostShownListener = listener;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return differ.getCurrentRows().get(position).viewType;
+    }
+
+    @NonNull
+    @Override
+    public BasePostViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return PostHolderRegistry.createHolder(parent, viewType);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BasePostViewHolder holder, int position) {
+        long start = System.nanoTime();
+        PostRowModel row = differ.getCurrentRows().get(position);
+        holder.bind(row);
+        FeedMetrics.get().recordBind(row.viewType, System.nanoTime() - start);
+        if (onPostShownListener != null) onPostShownListener.onPostShown(row.postId);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BasePostViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && allTimeUpdates(payloads)) {
+            holder.bindTime(differ.getCurrentRows().get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentRows().size();
+    }
+
+    public void submitList(List<Post> newPosts) {
+        differ.submitList(newPosts);
+    }
+
+    // Keeps relative times current while the feed is on screen.
+    public void startTimeUpdates() {
+        differ.startTimeUpdates();
+    }
+
+    public void stopTimeUpdates() {
+        differ.stopTimeUpdates();
+    }
+
+    private static boolean allTimeUpdates(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != FeedListDiffer.PAYLOAD_TIME) return false;
+        }
+        return true;
+    }
+}
+
+// PostHolderRegistry.java
+package com.example.socialfeed.view;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.socialfeed.R;
+import com.example.socialfeed.model.*;
+import java.util.Arrays;
+
+// The view half of ContentTypeRegistry: how to create a holder for each view
+// type and what goes into its row. Indexed by view type like the model side,
+// so onCreateViewHolder and row mapping cost the same for any number of types.
+public final class PostHolderRegistry {
+    public interface HolderFactory {
+        BasePostViewHolder create(LayoutInflater inflater, ViewGroup parent);
+    }
+
+    // Content-specific row fields; anything not overridden stays empty.
+    public interface RowContent<C extends PostContent> {
+        default String body(C content) { return null; }
+        default String mediaUrl(C content) { return null; }
+        default String caption(C content) { return null; }
+    }
+
+    private static final class Entry<C extends PostContent> {
+        final ContentType<C> type;
+        final HolderFactory holders;
+        final RowContent<C> rows;
+
+        Entry(ContentType<C> type, HolderFactory holders, RowContent<C> rows) {
+            this.type = type;
+            this.holders = holders;
+            this.rows = rows;
+        }
+
+        PostRowModel map(Post post, String timeAgo, long timeValidUntil) {
+            C content = type.contentClass.cast(post.content);
+            return new PostRowModel(post.id, type.viewType, post.timestamp, post.author.username, post.author.avatarURL,
+                    timeAgo, timeValidUntil, rows.body(content), rows.mediaUrl(content), rows.caption(content));
+        }
+    }
+
+    private static volatile Entry<?>[] byViewType = new Entry<?>[0];
+
+    static {
+        register(TextContent.TYPE,
+                (inflater, parent) -> new TextPostViewHolder(inflater.inflate(R.layout.item_post_text, parent, false)),
+                new RowContent<TextContent>() {
+                    @Override public String body(TextContent content) { return content.text; }
+                });
+        register(ImageContent.TYPE,
+                (inflater, parent) -> new ImagePostViewHolder(inflater.inflate(R.layout.item_post_image, parent, false)),
+                new RowContent<ImageContent>() {
+                    @Override public String mediaUrl(ImageContent content) { return content.imageURL; }
+                    @Override public String caption(ImageContent content) { return content.caption; }
+                });
+        register(VideoContent.TYPE,
+                (inflater, parent) -> new VideoPostViewHolder(inflater.inflate(R.layout.item_post_video, parent, false)),
+                new RowContent<VideoContent>() {
+                    @Override public String mediaUrl(VideoContent content) { return content.thumbnailURL; }
+                    @Override public String caption(VideoContent content) { return content.caption; }
+                });
+    }
+
+    private PostHolderRegistry() {}
+
+    public static synchronized <C extends PostContent> void register(ContentType<C> type, HolderFactory holders, RowContent<C> rows) {
+        Entry<?>[] entries = byViewType;
+        if (type.viewType < entries.length && entries[type.viewType] != null) {
+            throw new IllegalStateException("Holders for " + type + " are already registered");
+        }
+        entries = Arrays.copyOf(entries, Math.max(entries.length, type.viewType + 1));
+        entries[type.viewType] = new Entry<>(type, holders, rows);
+        byViewType = entries;
+    }
+
+    public static BasePostViewHolder createHolder(ViewGroup parent, int viewType) {
+        return entry(viewType).holders.create(LayoutInflater.from(parent.getContext()), parent);
+    }
+
+    public static PostRowModel map(Post post, String timeAgo, long timeValidUntil) {
+        return entry(post.content.getViewType()).map(post, timeAgo, timeValidUntil);
+    }
+
+    // Sizes the recycled pool per type from ContentType.maxRecycledViews.
+    public static void applyPoolHints(RecyclerView recyclerView) {
+        RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        for (Entry<?> entry : byViewType) {
+            if (entry != null) pool.setMaxRecycledViews(entry.type.viewType, entry.type.maxRecycledViews);
+        }
+    }
+
+    private static Entry<?> entry(int viewType) {
+        Entry<?>[] entries = byViewType;
+        Entry<?> entry = viewType >= 0 && viewType < entries.length ? entries[viewType] : null;
+        if (entry == null) throw new IllegalStateException("No holders registered for view type " + viewType);
+        return entry;
+    }
+}
+
+// PostRowModel.java
+package com.example.socialfeed.view;
+
+// Everything a holder shows for one post, resolved ahead of binding.
+public final class PostRowModel {
+    public final String postId;
+    public final int viewType;
+    public final long timestamp;
+    public final String username;
+    public final String avatarUrl;
+    public final String timeAgo;
+    // Epoch millis at which timeAgo stops being current.
+    public final long timeValidUntil;
+    public final String body;
+    public final String mediaUrl;
+    public final String caption;
+    public final boolean captionVisible;
+
+    public PostRowModel(String postId, int viewType, long timestamp, String username, String avatarUrl,
+                        String timeAgo, long timeValidUntil, String body, String mediaUrl, String caption) {
+        this.postId = postId;
+        this.viewType = viewType;
+        this.timestamp = timestamp;
+        this.username = username;
+        this.avatarUrl = avatarUrl;
+        this.timeAgo = timeAgo;
+        this.timeValidUntil = timeValidUntil;
+        this.body = body;
+        this.mediaUrl = mediaUrl;
+        this.caption = caption;
+        this.captionVisible = caption != null && !caption.isEmpty();
+    }
+
+    public PostRowModel withTimeAgo(String timeAgo, long timeValidUntil) {
+        return new PostRowModel(postId, viewType, timestamp, username, avatarUrl, timeAgo, timeValidUntil, body, mediaUrl, caption);
+    }
+}
+
+// PostRowMapper.java
+package com.example.socialfeed.view;
+
+import com.example.socialfeed.model.Post;
+
+// Turns posts into row models. Runs on the diff thread, never while binding.
+public class PostRowMapper {
+    private final RelativeTimeFormatter timeFormatter;
+
+    public PostRowMapper() {
+        this(new RelativeTimeFormatter());
+    }
+
+    public PostRowMapper(RelativeTimeFormatter timeFormatter) {
+        this.timeFormatter = timeFormatter;
+    }
+
+    public long now() {
+        return timeFormatter.now();
+    }
+
+    public PostRowModel map(Post post, long nowMillis) {
+        return PostHolderRegistry.map(post, timeFormatter.format(post.timestamp, nowMillis), timeFormatter.nextChangeAt(post.timestamp, nowMillis));
+    }
+
+    // The same row until its relative time crosses into the next bucket.
+    public PostRowModel refreshTime(PostRowModel row, long nowMillis) {
+        if (nowMillis < row.timeValidUntil) return row;
+        return row.withTimeAgo(timeFormatter.format(row.timestamp, nowMillis), timeFormatter.nextChangeAt(row.timestamp, nowMillis));
+    }
+}
+
+// RelativeTimeFormatter.java
+package com.example.socialfeed.view;
+
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.FormatStyle;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Compact relative times ("now", "5m", "3h", "2d", "1w", then "Mar 4" or
+// "Mar 4, 2023" in English) in plain Java. Unit labels come from a
+// per-language table, falling back to English; dates use the locale's
+// medium date format, with the year dropped for dates in the current year.
+// Ages fall into buckets; each bucket's label is built once per locale and
+// shared, so formatting a feed allocates nothing until posts are old enough
+// to show a date. nextChangeAt tells the caller when a label goes stale, so
+// refreshes happen only at boundaries.
+public final class RelativeTimeFormatter {
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long WEEK = 7 * DAY;
+    private static final long SHOW_DATE_AFTER = 4 * WEEK;
+    private static final int MAX_CACHED_DATES = 1024;
+
+    private static final ConcurrentHashMap<Locale, Labels> LABELS = new ConcurrentHashMap<>();
+
+    // now, then minutes, hours, days and weeks with {0} for the count.
+    private static final String[] ENGLISH_UNITS = {"now", "{0}m", "{0}h", "{0}d", "{0}w"};
+    private static final Map<String, String[]> UNITS = new HashMap<>();
+
+    static {
+        UNITS.put("en", ENGLISH_UNITS);
+        UNITS.put("de", new String[] {"jetzt", "{0} Min.", "{0} Std.", "{0} T.", "{0} W."});
+        UNITS.put("es", new String[] {"ahora", "{0} min", "{0} h", "{0} d", "{0} sem."});
+        UNITS.put("fr", new String[] {"maintenant", "{0} min", "{0} h", "{0} j", "{0} sem."});
+        UNITS.put("it", new String[] {"ora", "{0} min", "{0} h", "{0} g", "{0} sett."});
+        UNITS.put("nl", new String[] {"nu", "{0} min", "{0} u", "{0} d", "{0} w"});
+        UNITS.put("pt", new String[] {"agora", "{0} min", "{0} h", "{0} d", "{0} sem."});
+        UNITS.put("ru", new String[] {"\u0441\u0435\u0439\u0447\u0430\u0441", "{0} \u043c\u0438\u043d", "{0} \u0447", "{0} \u0434", "{0} \u043d\u0435\u0434."});
+        UNITS.put("ja", new String[] {"\u4eca", "{0}\u5206", "{0}\u6642\u9593", "{0}\u65e5", "{0}\u9031"});
+        UNITS.put("ko", new String[] {"\ubc29\uae08", "{0}\ubd84", "{0}\uc2dc\uac04", "{0}\uc77c", "{0}\uc8fc"});
+        UNITS.put("zh", new String[] {"\u521a\u521a", "{0}\u5206\u949f", "{0}\u5c0f\u65f6", "{0}\u5929", "{0}\u5468"});
+    }
+
+    private final ZoneId zone;
+    private final LongSupplier clock;
+    private final Labels labels;
+    private final DateTimeFormatter sameYearDate;
+    private final DateTimeFormatter otherYearDate;
+    private final ConcurrentHashMap<Long, String> dates = new ConcurrentHashMap<>();
+
+    public RelativeTimeFormatter() {
+        this(Locale.getDefault(), ZoneId.systemDefault(), System::currentTimeMillis);
+    }
+
+    public RelativeTimeFormatter(Locale locale, ZoneId zone, LongSupplier clock) {
+        this.zone = zone;
+        this.clock = clock;
+        this.labels = LABELS.computeIfAbsent(locale, Labels::new);
+        String medium = DateTimeFormatterBuilder.getLocalizedDateTimePattern(FormatStyle.MEDIUM, null, IsoChronology.INSTANCE, locale);
+        this.sameYearDate = DateTimeFormatter.ofPattern(withoutYear(medium), locale);
+        this.otherYearDate = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(locale);
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    public String format(long timestamp) {
+        return format(timestamp, clock.getAsLong());
+    }
+
+    public String format(long timestamp, long now) {
+        long age = now - timestamp;
+        if (age < MINUTE) return labels.now;
+        if (age < HOUR) return labels.label(labels.minutes, (int) (age / MINUTE), 1);
+        if (age < DAY) return labels.label(labels.hours, (int) (age / HOUR), 2);
+        if (age < WEEK) return labels.label(labels.days, (int) (age / DAY), 3);
+        if (age < SHOW_DATE_AFTER) return labels.label(labels.weeks, (int) (age / WEEK), 4);
+        return date(timestamp, now);
+    }
+
+    // First instant after now at which format(timestamp, ...) changes, or Long.MAX_VALUE.
+    public long nextChangeAt(long timestamp, long now) {
+        long age = now - timestamp;
+        if (age < 0) return timestamp + MINUTE;
+        if (age < HOUR) return timestamp + (age / MINUTE + 1) * MINUTE;
+        if (age < DAY) return timestamp + (age / HOUR + 1) * HOUR;
+        if (age < WEEK) return timestamp + (age / DAY + 1) * DAY;
+        if (age < SHOW_DATE_AFTER) return timestamp + (age / WEEK + 1) * WEEK;
+        // A date only changes when the year it is shown against rolls over.
+        LocalDate today = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+        if (dateOf(timestamp).getYear() != today.getYear()) return Long.MAX_VALUE;
+        return today.plusYears(1).withDayOfYear(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private String date(long timestamp, long now) {
+        LocalDate date = dateOf(timestamp);
+        boolean sameYear = date.getYear() == Instant.ofEpochMilli(now).atZone(zone).getYear();
+        Long key = date.toEpochDay() * 2 + (sameYear ? 0 : 1);
+        String cached = dates.get(key);
+        if (cached != null) return cached;
+        if (dates.size() >= MAX_CACHED_DATES) dates.clear();
+        String formatted = (sameYear ? sameYearDate : otherYearDate).format(date);
+        dates.put(key, formatted);
+        return formatted;
+    }
+
+    private LocalDate dateOf(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+    }
+
+    // Drops the year field from a localized date pattern, together with its
+    // separator and any quoted literal tied to it: "MMM d, y" -> "MMM d",
+    // "y/MM/dd" -> "MM/dd", "d 'de' MMM 'de' y" -> "d 'de' MMM".
+    static String withoutYear(String pattern) {
+        return pattern
+                .replaceAll("(\\s*'[^']*')?[\\s,./-]*y+[\u5e74\ub144]?(\\s*'[^']*')?\\.?", "")
+                .replaceAll("^[\\s,./-]+", "")
+                .trim();
+    }
+
+    // Shared per locale; each slot is filled on first use and never changes.
+    private static final class Labels {
+        final String now;
+        final String[] minutes = new String[60];
+        final String[] hours = new String[24];
+        final String[] days = new String[7];
+        final String[] weeks = new String[4];
+        private final String[] units;
+        private final NumberFormat numbers;
+
+        Labels(Locale locale) {
+            units = UNITS.getOrDefault(locale.getLanguage(), ENGLISH_UNITS);
+            now = units[0];
+            numbers = NumberFormat.getIntegerInstance(locale);
+        }
+
+        String label(String[] slots, int count, int unit) {
+            String label = slots[count];
+            if (label == null) {
+                synchronized (this) {
+                    label = units[unit].replace("{0}", numbers.format(count));
+                }
+                slots[count] = label;
+            }
+            return label;
+        }
+    }
+}
+
+// PostListUpdates.java
+package com.example.socialfeed.view;
+
+import androidx.recyclerview.widget.DiffUtil;
+import com.example.socialfeed.model.ChunkedPostList;
+import com.example.socialfeed.model.Post;
+import java.util.List;
+
+public final class PostListUpdates {
+    private PostListUpdates() {}
+
+    // Item moves, inserts and removals keyed on Post.id, for any update that is not a plain append.
+    public static DiffUtil.DiffResult diff(List<Post> oldList, List<Post> newList) {
+        return DiffUtil.calculateDiff(new PostDiffCallback(oldList, newList));
+    }
+
+    // Number of posts appended if newList starts with exactly the posts of oldList, otherwise -1.
+    public static int appendedCount(List<Post> oldList, List<Post> newList) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+        if (newSize < oldSize) return -1;
+        if (oldList instanceof ChunkedPostList && newList instanceof ChunkedPostList
+                && ((ChunkedPostList) newList).startsWith((ChunkedPostList) oldList)) {
+            return newSize - oldSize;
+        }
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (oldList.get(i) != newList.get(i)) return -1;
+        }
+        return newSize - oldSize;
+    }
+
+    private static final class PostDiffCallback extends DiffUtil.Callback {
+        private final List<Post> oldList;
+        private final List<Post> newList;
+
+        PostDiffCallback(List<Post> oldList, List<Post> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override public int getOldListSize() { return oldList.size(); }
+        @Override public int getNewListSize() { return newList.size(); }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldList.get(oldPosition).id.equals(newList.get(newPosition).id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            // Posts are immutable, so the same instance means the same content.
+            return oldList.get(oldPosition) == newList.get(newPosition);
+        }
+    }
+}
+
+// FeedListDiffer.java
+package com.example.socialfeed.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.socialfeed.model.Post;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// Keeps the adapter's list and turns each new list into the minimal set of
+// insert/remove/move/change notifications keyed on Post.id. Row models for
+// new posts are built on the same background thread as the diff; rows of
+// posts already shown are reused.
+final class FeedListDiffer {
+    static final Object PAYLOAD_TIME = new Object();
+
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "feed-diff");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final PostRowMapper mapper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Always replaced together, so index i of one matches index i of the other.
+    private List<Post> currentList = Collections.emptyList();
+    private List<PostRowModel> currentRows = Collections.emptyList();
+    private int generation;
+
+    // One timer for every row: it fires when the first relative time goes stale.
+    private final Runnable timeTick = this::refreshTimes;
+    private boolean timeUpdates;
+    private long nextTimeChange = Long.MAX_VALUE;
+
+    FeedListDiffer(RecyclerView.Adapter<?> adapter, PostRowMapper mapper) {
+        this.adapter = adapter;
+        this.mapper = mapper;
+    }
+
+    List<PostRowModel> getCurrentRows() {
+        return currentRows;
+    }
+
+    void startTimeUpdates() {
+        timeUpdates = true;
+        refreshTimes();
+    }
+
+    void stopTimeUpdates() {
+        timeUpdates = false;
+        mainHandler.removeCallbacks(timeTick);
+    }
+
+    void submitList(List<Post> newList) {
+        if (newList == null) newList = Collections.emptyList();
+        if (newList == currentList) return;
+        final int submitGeneration = ++generation;
+        final List<Post> oldList = currentList;
+        final List<PostRowModel> oldRows = currentRows;
+
+        if (newList.isEmpty()) {
+            currentList = newList;
+            currentRows = Collections.emptyList();
+            nextTimeChange = Long.MAX_VALUE;
+            if (!oldList.isEmpty()) adapter.notifyItemRangeRemoved(0, oldList.size());
+            return;
+        }
+
+        final List<Post> targetList = newList;
+        final long oldNextTimeChange = nextTimeChange;
+        DIFF_EXECUTOR.execute(() -> {
+            long now = mapper.now();
+            int appended = oldList.isEmpty() ? targetList.size() : PostListUpdates.appendedCount(oldList, targetList);
+            if (appended >= 0) {
+                List<PostRowModel> rows = new ArrayList<>(targetList.size());
+                rows.addAll(oldRows);
+                long nextChange = oldNextTimeChange;
+                for (int i = oldRows.size(); i < targetList.size(); i++) {
+                    PostRowModel row = mapper.map(targetList.get(i), now);
+                    nextChange = Math.min(nextChange, row.timeValidUntil);
+                    rows.add(row);
+                }
+                final long rowsNextChange = nextChange;
+                mainHandler.post(() -> {
+                    if (submitGeneration != generation) return;
+                    currentList = targetList;
+                    currentRows = Collections.unmodifiableList(rows);
+                    if (appended > 0) adapter.notifyItemRangeInserted(oldList.size(), appended);
+                    scheduleTimeTick(rowsNextChange);
+                });
+                return;
+            }
+            DiffUtil.DiffResult result = PostListUpdates.diff(oldList, targetList);
+            List<PostRowModel> rows = remap(oldList, oldRows, targetList, now);
+            final long rowsNextChange = earliestTimeChange(rows);
+            mainHandler.post(() -> {
+                if (submitGeneration != generation) return;
+                currentList = targetList;
+                currentRows = rows;
+                result.dispatchUpdatesTo(adapter);
+                scheduleTimeTick(rowsNextChange);
+            });
+        });
+    }
+
+    // Re-formats the relative times that went stale, off the main thread, and
+    // rebinds only the timestamp views of those rows, in contiguous ranges.
+    void refreshTimes() {
+        final int refreshGeneration = generation;
+        final List<PostRowModel> rows = currentRows;
+        if (rows.isEmpty()) return;
+        DIFF_EXECUTOR.execute(() -> {
+            long now = mapper.now();
+            List<PostRowModel> refreshed = null;
+            for (int i = 0; i < rows.size(); i++) {
+                PostRowModel row = mapper.refreshTime(rows.get(i), now);
+                if (row == rows.get(i)) continue;
+                if (refreshed == null) refreshed = new ArrayList<>(rows);
+                refreshed.set(i, row);
+            }
+            final List<PostRowModel> updated = refreshed == null ? rows : Collections.unmodifiableList(refreshed);
+            final long rowsNextChange = earliestTimeChange(updated);
+            mainHandler.post(() -> {
+                // A list submitted meanwhile has replaced the rows this refresh started from.
+                if (refreshGeneration != generation || currentRows != rows) return;
+                scheduleTimeTick(rowsNextChange);
+                if (updated == rows) return;
+                currentRows = updated;
+                int start = -1;
+                for (int i = 0; i <= updated.size(); i++) {
+                    boolean changed = i < updated.size() && updated.get(i) != rows.get(i);
+                    if (changed && start < 0) {
+                        start = i;
+                    } else if (!changed && start >= 0) {
+                        adapter.notifyItemRangeChanged(start, i - start, PAYLOAD_TIME);
+                        start = -1;
+                    }
+                }
+            });
+        });
+    }
+
+    private void scheduleTimeTick(long at) {
+        nextTimeChange = at;
+        mainHandler.removeCallbacks(timeTick);
+        if (timeUpdates && at != Long.MAX_VALUE) {
+            mainHandler.postDelayed(timeTick, Math.max(0, at - mapper.now()));
+        }
+    }
+
+    private static long earliestTimeChange(List<PostRowModel> rows) {
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < rows.size(); i++) earliest = Math.min(earliest, rows.get(i).timeValidUntil);
+        return earliest;
+    }
+
+    private List<PostRowModel> remap(List<Post> oldList, List<PostRowModel> oldRows, List<Post> newList, long now) {
+        Map<Post, PostRowModel> known = new IdentityHashMap<>(oldList.size() * 2);
+        for (int i = 0; i < oldList.size(); i++) known.put(oldList.get(i), oldRows.get(i));
+        List<PostRowModel> rows = new ArrayList<>(newList.size());
+        for (Post post : newList) {
+            PostRowModel row = known.get(post);
+            rows.add(row != null ? row : mapper.map(post, now));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
+
+// BasePostViewHolder.java
+package com.example.socialfeed.view;
+
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.recyclerview.widget.RecyclerView;
+import com.bumptech.glide.Glide;
+import com.example.socialfeed.R;
+
+public abstract class BasePostViewHolder extends RecyclerView.ViewHolder {
+    protected final ImageView avatarImageView;
+    protected final TextView usernameTextView;
+    protected final TextView timestampTextView;
+
+    public BasePostViewHolder(View itemView) {
+        super(itemView);
+        avatarImageView = itemView.findViewById(R.id.image_view_avatar);
+        usernameTextView = itemView.findViewById(R.id.text_view_username);
+        timestampTextView = itemView.findViewById(R.id.text_view_timestamp);
+    }
+
+    public void bind(PostRowModel row) {
+        usernameTextView.setText(row.username);
+        timestampTextView.setText(row.timeAgo);
+
+        Glide.with(itemView.getContext())
+             .load(row.avatarUrl)
+             .circleCrop()
+             .into(avatarImageView);
+    }
+
+    public void bindTime(PostRowModel row) {
+        timestampTextView.setText(row.timeAgo);
+    }
+}
+
+// TextPostViewHolder.java
+package com.example.socialfeed.view;
+
+import android.view.View;
+import android.widget.TextView;
+import com.example.socialfeed.R;
+
+public class TextPostViewHolder extends BasePostViewHolder {
+    private final TextView contentTextView;
+
+    public TextPostViewHolder(View itemView) {
+        super(itemView);
+        contentTextView = itemView.findViewById(R.id.text_view_content);
+    }
+
+    @Override
+    public void bind(PostRowModel row) {
+        super.bind(row);
+        contentTextView.setText(row.body);
+    }
+}
+
+// MediaPostViewHolder.java (A new base class for image and video)
 package com.example.socialfeed.view;
 
 import android.view.View;
-import com.example.socialfeed.model.ImageContent;
-import com.example.socialfeed.model.Post;
+import android.widget.ImageView;
+import android.widget.TextView;
+import com.bumptech.glide.Glide;
+import com.example.socialfeed.R;
 
-public class ImagePostViewHolder extends MediaPostViewHolder {
-    public ImagePostViewHolder(View itemView) { super(itemView); }
+public abstract class MediaPostViewHolder extends BasePostViewHolder {
+    protected final ImageView postImageView;
+    protected final TextView captionTextView;
+
+    public MediaPostViewHolder(View itemView) {
+        super(itemView);
+        postImageView = itemView.findViewById(R.id.image_view_post);
+        captionTextView = itemView.findViewById(R.id.text_view_caption);
+    }
 
     @Override
-    public void bind(Post post) {
-        super.bind(post);
-        if (post.content instanceof ImageContent) {
-            ImageContent content = (ImageContent) post.content;
-            bindMedia(content.imageURL, content.caption);
-        }
+    public void bind(PostRowModel row) {
+        super.bind(row);
+        captionTextView.setText(row.caption);
+        captionTextView.setVisibility(row.captionVisible ? View.VISIBLE : View.GONE);
+
+        Glide.with(itemView.getContext())
+             .load(row.mediaUrl)
+             .into(postImageView);
     }
 }
 
+
+// ImagePostViewHolder.java
+package com.example.socialfeed.view;
+
+import android.view.View;
+
+public class ImagePostViewHolder extends MediaPostViewHolder {
+    public ImagePostViewHolder(View itemView) { super(itemView); }
+}
+
 // VideoPostViewHolder.java
 package com.example.socialfeed.view;
 
 import android.view.View;
-import com.example.socialfeed.model.Post;
-import com.example.socialfeed.model.VideoContent;
 
 public class VideoPostViewHolder extends MediaPostViewHolder {
     public VideoPostViewHolder(View itemView) { super(itemView); }
+}
+
+
+// GlideMediaPrefetcher.java
+package com.example.socialfeed.view;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.target.Target;
+import com.example.socialfeed.viewmodel.MediaPrefetcher;
+import com.example.socialfeed.viewmodel.MediaRequest;
+import java.util.ArrayDeque;
+import java.util.List;
+
+// Preloads media into Glide's memory cache at the exact size and transform the
+// view holders request, so the later bind is a cache hit instead of a decode.
+public class GlideMediaPrefetcher implements MediaPrefetcher {
+    private static final int MAX_RETAINED_TARGETS = 120;
+    private static final int HIGH_PRIORITY_ROWS = 4;
+
+    private final RequestManager glide;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<Target<?>> targets = new ArrayDeque<>();
+    private final int avatarSizePx;
+    private final int mediaWidthPx;
+    private final int mediaHeightPx;
+
+    public GlideMediaPrefetcher(Context context, int avatarSizePx, int mediaWidthPx, int mediaHeightPx) {
+        this.glide = Glide.with(context.getApplicationContext());
+        this.avatarSizePx = avatarSizePx;
+        this.mediaWidthPx = mediaWidthPx;
+        this.mediaHeightPx = mediaHeightPx;
+    }
 
     @Override
-    public void bind(Post post) {
-        super.bind(post);
-        if (post.content instanceof VideoContent) {
-            VideoContent content = (VideoContent) post.content;
-            bindMedia(content.thumbnailURL, content.caption);
+    public void prefetch(List<MediaRequest> requests) {
+        mainHandler.post(() -> {
+            for (MediaRequest request : requests) {
+                targets.addLast(preload(request));
+                if (targets.size() > MAX_RETAINED_TARGETS) glide.clear(targets.removeFirst());
+            }
+        });
+    }
+
+    @Override
+    public void cancelAll() {
+        mainHandler.post(() -> {
+            while (!targets.isEmpty()) glide.clear(targets.removeFirst());
+        });
+    }
+
+    private Target<?> preload(MediaRequest request) {
+        Priority priority = request.row < HIGH_PRIORITY_ROWS ? Priority.HIGH
+                : request.kind == MediaRequest.Kind.AVATAR ? Priority.NORMAL : Priority.LOW;
+        RequestBuilder<?> builder = glide.load(request.url).priority(priority);
+        if (request.kind == MediaRequest.Kind.AVATAR) {
+            return builder.circleCrop().preload(avatarSizePx, avatarSizePx);
+        }
+        return builder.centerCrop().preload(mediaWidthPx, mediaHeightPx);
+    }
+}
+
+// --- Benchmark Package (JMH) ---
+// Run all:   java -cp <classpath> com.example.socialfeed.benchmark.FeedBenchmarks
+// Run one:   java -cp <classpath> com.example.socialfeed.benchmark.FeedBenchmarks FeedMergeBenchmark
+
+// FeedBenchmarks.java
+package com.example.socialfeed.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point for the feed pipeline benchmarks. Every benchmark reports
+// throughput and sampled latency (p99 in the SampleTime rows); the GC profiler
+// adds allocation rate per operation.
+public final class FeedBenchmarks {
+    private FeedBenchmarks() {}
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : FeedBenchmarks.class.getPackage().getName() + ".*";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
+
+// MockPostsBenchmark.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MockPostsBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int feedSize;
+
+    @Param({"TEXT_ONLY", "UNIFORM", "MEDIA_HEAVY"})
+    public FeedService.ContentMix contentMix;
+
+    @Benchmark
+    public List<Post> generateMockPosts() {
+        return FeedService.generateMockPosts(feedSize, contentMix);
+    }
+}
+
+// FeedMergeBenchmark.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.ChunkedPostList;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Builds a feed of feedSize posts one 20-post page at a time, the way
+// FeedViewModel.loadMorePosts does over a scroll session.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedMergeBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int feedSize;
+
+    private List<List<Post>> pages;
+
+    @Setup
+    public void setUp() {
+        List<Post> posts = FeedService.generateMockPosts(feedSize);
+        pages = new ArrayList<>();
+        for (int i = 0; i < posts.size(); i += FeedService.DEFAULT_PAGE_SIZE) {
+            pages.add(posts.subList(i, Math.min(posts.size(), i + FeedService.DEFAULT_PAGE_SIZE)));
+        }
+    }
+
+    @Benchmark
+    public List<Post> copyOnAppend() {
+        List<Post> feed = new ArrayList<>();
+        for (List<Post> page : pages) {
+            List<Post> next = new ArrayList<>(feed);
+            next.addAll(page);
+            feed = next;
+        }
+        return feed;
+    }
+
+    @Benchmark
+    public List<Post> chunkedAppend() {
+        ChunkedPostList feed = ChunkedPostList.empty();
+        for (List<Post> page : pages) {
+            feed = feed.appendAll(page);
+        }
+        return feed;
+    }
+}
+
+// ListUpdateBenchmark.java
+package com.example.socialfeed.benchmark;
+
+import androidx.recyclerview.widget.DiffUtil;
+import com.example.socialfeed.model.ChunkedPostList;
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.model.TextContent;
+import com.example.socialfeed.service.FeedService;
+import com.example.socialfeed.view.PostListUpdates;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The adapter's two list-update paths on a feed of feedSize posts: the
+// append check when one page lands, and the DiffUtil pass a refresh takes,
+// with a page of new posts on top, one post deleted and one edited.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListUpdateBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int feedSize;
+
+    private List<Post> oldArrayList;
+    private List<Post> newArrayList;
+    private ChunkedPostList oldChunked;
+    private ChunkedPostList newChunked;
+    private List<Post> refreshed;
+
+    @Setup
+    public void setUp() {
+        List<Post> feed = FeedService.generateMockPosts(feedSize);
+        List<Post> page = FeedService.generateMockPosts(FeedService.DEFAULT_PAGE_SIZE);
+        oldArrayList = new ArrayList<>(feed);
+        newArrayList = new ArrayList<>(feed);
+        newArrayList.addAll(page);
+        oldChunked = ChunkedPostList.of(feed);
+        newChunked = oldChunked.appendAll(page);
+
+        refreshed = new ArrayList<>(page);
+        refreshed.addAll(feed);
+        refreshed.remove(page.size() + feedSize / 2);
+        int edited = page.size() + feedSize / 4;
+        Post original = refreshed.get(edited);
+        refreshed.set(edited, new Post(original.id, original.author, new TextContent("Edited."), original.timestamp));
+    }
+
+    @Benchmark
+    public int appendCheckArrayList() {
+        return PostListUpdates.appendedCount(oldArrayList, newArrayList);
+    }
+
+    @Benchmark
+    public int appendCheckChunked() {
+        return PostListUpdates.appendedCount(oldChunked, newChunked);
+    }
+
+    @Benchmark
+    public DiffUtil.DiffResult diffRefresh() {
+        return PostListUpdates.diff(oldArrayList, refreshed);
+    }
+}
+
+// ViewTypeDispatchBenchmark.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.Post;
+import com.example.socialfeed.service.FeedService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// PostContent.getViewType over a feed, as FeedAdapter.getItemViewType calls it.
+// TEXT_ONLY stays monomorphic; the mixed feeds make the call site megamorphic.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViewTypeDispatchBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int feedSize;
+
+    @Param({"TEXT_ONLY", "UNIFORM", "MEDIA_HEAVY"})
+    public FeedService.ContentMix contentMix;
+
+    private List<Post> feed;
+
+    @Setup
+    public void setUp() {
+        feed = FeedService.generateMockPosts(feedSize, contentMix);
+    }
+
+    @Benchmark
+    public int viewTypes() {
+        int sum = 0;
+        for (int i = 0, n = feed.size(); i < n; i++) {
+            sum += feed.get(i).content.getViewType();
+        }
+        return sum;
+    }
+}
+
+// PostCodecBenchmark.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.*;
+import com.example.socialfeed.service.FeedService;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// PostCodec against writing every field with DataOutput.writeUTF, the format
+// FeedCache used before. Page sizes in bytes are reported as aux counters.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostCodecBenchmark {
+    @Param({"20", "100", "1000"})
+    public int pageSize;
+
+    @Param({"TEXT_ONLY", "UNIFORM", "MEDIA_HEAVY"})
+    public FeedService.ContentMix contentMix;
+
+    private List<Post> page;
+    private byte[] encoded;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class PageBytes {
+        public long codecBytes;
+        public long dataOutputBytes;
+    }
+
+    @Setup
+    public void setUp() {
+        page = FeedService.generateMockPosts(pageSize, contentMix);
+        encoded = PostCodec.encodePage(page);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec(PageBytes bytes) {
+        byte[] out = PostCodec.encodePage(page);
+        bytes.codecBytes = out.length;
+        return out;
+    }
+
+    @Benchmark
+    public List<Post> decodeCodec() throws IOException {
+        return PostCodec.decodePage(encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeDataOutput(PageBytes bytes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (Post post : page) {
+            out.writeUTF(post.id);
+            out.writeLong(post.timestamp);
+            out.writeUTF(post.author.id);
+            out.writeUTF(post.author.username);
+            out.writeUTF(post.author.avatarURL);
+            out.writeInt(post.content.getViewType());
+            if (post.content instanceof ImageContent) {
+                ImageContent image = (ImageContent) post.content;
+                out.writeUTF(image.imageURL);
+                out.writeUTF(image.caption);
+            } else if (post.content instanceof VideoContent) {
+                VideoContent video = (VideoContent) post.content;
+                out.writeUTF(video.thumbnailURL);
+                out.writeUTF(video.videoURL);
+                out.writeUTF(video.caption);
+            } else {
+                out.writeUTF(((TextContent) post.content).text);
+            }
+        }
+        byte[] result = buffer.toByteArray();
+        bytes.dataOutputBytes = result.length;
+        return result;
+    }
+}
+
+// PostFootprint.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.*;
+import com.example.socialfeed.service.ColumnarPostStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Retained heap of a feed with fresh User and URL/caption instances per post
+// versus instances shared through UserRegistry and StringPool. Authors repeat
+// every AUTHORS posts, as they do in real pages. Image URLs share a prefix and
+// differ in their last path segment, so StringPool, which shares only whole
+// strings, cannot help with them; the prefix is shared only where URLs are
+// split, in PostCodec pages, whose size is reported last.
+//   java -cp <classpath> com.example.socialfeed.benchmark.PostFootprint [posts]
+public final class PostFootprint {
+    private static final int AUTHORS = 200;
+    private static final String IMAGE_URL_PREFIX = "https://placehold.co/600x400/CCCCCC/333333?text=";
+
+    private PostFootprint() {}
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        report("fresh instances", count, false);
+        report("interned", count, true);
+        reportColumnar(count);
+        reportEncoded(count);
+    }
+
+    private static void reportEncoded(int count) {
+        List<Post> feed = build(count, true, new UserRegistry(AUTHORS), new StringPool(StringPool.DEFAULT_MAX_STRINGS));
+        long urlChars = 0;
+        for (Post post : feed) urlChars += ((ImageContent) post.content).imageURL.length();
+        int bytes = PostCodec.encodePage(feed).length;
+        System.out.printf("%-16s %,d posts: %,d bytes (%,d per post) for %,d URL chars%n",
+                "PostCodec page", feed.size(), bytes, bytes / feed.size(), urlChars);
+    }
+
+    private static void reportColumnar(int count) {
+        long before = usedHeap();
+        ColumnarPostStore store = new ColumnarPostStore();
+        store.addAll(build(count, true, new UserRegistry(AUTHORS), new StringPool(StringPool.DEFAULT_MAX_STRINGS)));
+        long after = usedHeap();
+        System.out.printf("%-16s %,d posts: %,d bytes retained (%,d per post), %,d bytes off-heap%n",
+                "columnar", store.size(), after - before, (after - before) / store.size(), store.offHeapBytes());
+    }
+
+    private static void report(String label, int count, boolean intern) {
+        long before = usedHeap();
+        List<Post> feed = build(count, intern, new UserRegistry(AUTHORS), new StringPool(StringPool.DEFAULT_MAX_STRINGS));
+        long after = usedHeap();
+        System.out.printf("%-16s %,d posts: %,d bytes retained (%,d per post)%n",
+                label, feed.size(), after - before, (after - before) / feed.size());
+    }
+
+    private static List<Post> build(int count, boolean intern, UserRegistry users, StringPool strings) {
+        List<Post> posts = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            int author = i % AUTHORS;
+            User user = new User("user_" + author, "User " + author, "https://placehold.co/100x100/EFEFEF/333333?text=U" + author);
+            String imageUrl = IMAGE_URL_PREFIX + "Image" + i;
+            String caption = new String("An interesting image caption. #scenery");
+            if (intern) {
+                user = users.intern(user);
+                imageUrl = strings.intern(imageUrl);
+                caption = strings.intern(caption);
+            }
+            posts.add(new Post(UUID.randomUUID().toString(), user, new ImageContent(imageUrl, caption), now - i * 60_000L));
+        }
+        return posts;
+    }
+
+    // Lowest used heap over a second of collections: the previous run's feed
+    // can outlive the first few, so a single reading may still include it.
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return used;
+    }
+}
+
+// PostCodecRoundTrip.java
+package com.example.socialfeed.benchmark;
+
+import com.example.socialfeed.model.*;
+import com.example.socialfeed.service.FeedService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Round-trips pages of every ContentMix through PostCodec, checks that
+// corrupted pages fail with IOException only, and compares page size and
+// encode/decode time against Java serialization and JSON of the same fields.
+// The checks run by hand rather than in the build; a failed one makes the
+// process exit with status 1. JSON is decoded by a minimal parser for this
+// one shape, a lower bound on what a general JSON library would take.
+//   java -cp <classpath> com.example.socialfeed.benchmark.PostCodecRoundTrip [posts]
+public final class PostCodecRoundTrip {
+    private static final int ROUNDS = 200;
+    private static final int CORRUPTIONS = 2_000;
+
+    private PostCodecRoundTrip() {}
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        boolean ok = true;
+        for (FeedService.ContentMix mix : FeedService.ContentMix.values()) {
+            List<Post> page = FeedService.generateMockPosts(count, mix);
+            ok &= roundTrip(mix, page);
+            ok &= corrupt(mix, PostCodec.encodePage(page));
+            compare(mix, page);
+        }
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean roundTrip(FeedService.ContentMix mix, List<Post> page) throws IOException {
+        byte[] encoded = PostCodec.encodePage(page);
+        List<Post> decoded = PostCodec.decodePage(encoded);
+        boolean same = decoded.size() == page.size()
+                // Content is checked through the registry's codec: a lossless
+                // round trip re-encodes to the same bytes.
+                && Arrays.equals(encoded, PostCodec.encodePage(decoded));
+        for (int i = 0; same && i < page.size(); i++) {
+            Post expected = page.get(i);
+            Post actual = decoded.get(i);
+            same = expected.id.equals(actual.id)
+                    && expected.timestamp == actual.timestamp
+                    && expected.author.id.equals(actual.author.id)
+                    && expected.author.username.equals(actual.author.username)
+                    && expected.author.avatarURL.equals(actual.author.avatarURL)
+                    && expected.content.getViewType() == actual.content.getViewType()
+                    && fields(expected).equals(fields(actual));
+        }
+        System.out.printf("%-12s round trip of %,d posts: %s%n", mix, page.size(), same ? "ok" : "MISMATCH");
+        return same;
+    }
+
+    // Truncated pages and flipped bytes may decode or fail, but only with IOException.
+    private static boolean corrupt(FeedService.ContentMix mix, byte[] encoded) {
+        Random random = new Random(42);
+        int failures = 0;
+        for (int i = 0; i < CORRUPTIONS; i++) {
+            byte[] page = i % 2 == 0
+                    ? Arrays.copyOf(encoded, random.nextInt(encoded.length))
+                    : encoded.clone();
+            if (i % 2 != 0) {
+                for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                    page[random.nextInt(page.length)] = (byte) random.nextInt(256);
+                }
+            }
+            try {
+                PostCodec.decodePage(page);
+            } catch (IOException expected) {
+                // Rejected as corrupt.
+            } catch (RuntimeException | OutOfMemoryError e) {
+                failures++;
+            }
+        }
+        System.out.printf("%-12s %,d corrupted pages: %s%n", mix, CORRUPTIONS,
+                failures == 0 ? "ok" : failures + " failed outside IOException");
+        return failures == 0;
+    }
+
+    private static void compare(FeedService.ContentMix mix, List<Post> page) throws Exception {
+        byte[] codec = PostCodec.encodePage(page);
+        byte[] serialized = serialize(page);
+        byte[] json = json(page).getBytes(StandardCharsets.UTF_8);
+
+        long codecEncode = time(() -> PostCodec.encodePage(page));
+        long codecDecode = time(() -> PostCodec.decodePage(codec));
+        long serialEncode = time(() -> serialize(page));
+        long serialDecode = time(() -> new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject());
+        long jsonEncode = time(() -> json(page));
+        long jsonDecode = time(() -> parseJson(new String(json, StandardCharsets.UTF_8)));
+        if (!Arrays.equals(codec, PostCodec.encodePage(parseJson(new String(json, StandardCharsets.UTF_8))))) {
+            throw new IllegalStateException("JSON decode does not match the page");
+        }
+
+        System.out.printf("%-12s %-14s %,9d bytes  encode %,8d ns  decode %,8d ns%n", mix, "PostCodec", codec.length, codecEncode, codecDecode);
+        System.out.printf("%-12s %-14s %,9d bytes  encode %,8d ns  decode %,8d ns%n", mix, "serialization", serialized.length, serialEncode, serialDecode);
+        System.out.printf("%-12s %-14s %,9d bytes  encode %,8d ns  decode %,8d ns%n", mix, "JSON", json.length, jsonEncode, jsonDecode);
+    }
+
+    // Java serialization of the same fields; Post itself is not Serializable.
+    private static byte[] serialize(List<Post> page) throws IOException {
+        ArrayList<Object[]> rows = new ArrayList<>(page.size());
+        for (Post post : page) {
+            List<String> content = fields(post);
+            Object[] row = new Object[6 + content.size()];
+            row[0] = post.id;
+            row[1] = post.timestamp;
+            row[2] = post.author.id;
+            row[3] = post.author.username;
+            row[4] = post.author.avatarURL;
+            row[5] = post.content.getViewType();
+            for (int i = 0; i < content.size(); i++) row[6 + i] = content.get(i);
+            rows.add(row);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rows);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String json(List<Post> page) {
+        StringBuilder out = new StringBuilder(page.size() * 256).append('[');
+        for (int i = 0; i < page.size(); i++) {
+            Post post = page.get(i);
+            if (i > 0) out.append(',');
+            out.append("{\"id\":");
+            quote(out, post.id);
+            out.append(",\"timestamp\":").append(post.timestamp).append(",\"author\":{\"id\":");
+            quote(out, post.author.id);
+            out.append(",\"username\":");
+            quote(out, post.author.username);
+            out.append(",\"avatarURL\":");
+            quote(out, post.author.avatarURL);
+            out.append("},\"viewType\":").append(post.content.getViewType()).append(",\"content\":[");
+            List<String> content = fields(post);
+            for (int j = 0; j < content.size(); j++) {
+                if (j > 0) out.append(',');
+                quote(out, content.get(j));
+            }
+            out.append("]}");
+        }
+        return out.append(']').toString();
+    }
+
+    // Posts back from json(), built like PostCodec builds them.
+    private static List<Post> parseJson(String json) {
+        JsonReader in = new JsonReader(json);
+        List<Post> posts = new ArrayList<>();
+        in.expect('[');
+        while (!in.skip(']')) {
+            in.skip(',');
+            in.expect('{');
+            in.key("id");
+            String id = in.string();
+            in.key("timestamp");
+            long timestamp = in.number();
+            in.key("author");
+            in.expect('{');
+            in.key("id");
+            String authorId = in.string();
+            in.key("username");
+            String username = in.string();
+            in.key("avatarURL");
+            String avatarURL = in.string();
+            in.expect('}');
+            in.key("viewType");
+            int viewType = (int) in.number();
+            in.key("content");
+            List<String> content = new ArrayList<>(3);
+            in.expect('[');
+            while (!in.skip(']')) {
+                in.skip(',');
+                content.add(in.string());
+            }
+            in.expect('}');
+            User author = UserRegistry.shared().intern(new User(authorId, username, StringPool.shared().intern(avatarURL)));
+            posts.add(new Post(id, author, content(viewType, content), timestamp));
+        }
+        return posts;
+    }
+
+    private static PostContent content(int viewType, List<String> fields) {
+        StringPool strings = StringPool.shared();
+        if (viewType == ImageContent.TYPE.viewType) {
+            return new ImageContent(strings.intern(fields.get(0)), strings.intern(fields.get(1)));
+        } else if (viewType == VideoContent.TYPE.viewType) {
+            return new VideoContent(strings.intern(fields.get(0)), strings.intern(fields.get(1)), strings.intern(fields.get(2)));
+        }
+        return new TextContent(fields.get(0));
+    }
+
+    // Just enough of JSON for json()'s output: no whitespace, no nulls.
+    private static final class JsonReader {
+        private final String json;
+        private int at;
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        void expect(char c) {
+            if (json.charAt(at++) != c) throw new IllegalArgumentException("Expected '" + c + "' at " + (at - 1));
+        }
+
+        boolean skip(char c) {
+            if (json.charAt(at) != c) return false;
+            at++;
+            return true;
+        }
+
+        void key(String name) {
+            skip(',');
+            if (!string().equals(name)) throw new IllegalArgumentException("Expected key " + name + " at " + at);
+            expect(':');
+        }
+
+        long number() {
+            int start = at;
+            if (json.charAt(at) == '-') at++;
+            while (at < json.length() && Character.isDigit(json.charAt(at))) at++;
+            return Long.parseLong(json, start, at, 10);
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder out = null;
+            int start = at;
+            for (char c = json.charAt(at); c != '"'; c = json.charAt(at)) {
+                if (c != '\\') {
+                    at++;
+                    continue;
+                }
+                if (out == null) out = new StringBuilder();
+                out.append(json, start, at);
+                char escaped = json.charAt(at + 1);
+                if (escaped == 'u') {
+                    out.append((char) Integer.parseInt(json, at + 2, at + 6, 16));
+                    at += 6;
+                } else {
+                    out.append(escaped);
+                    at += 2;
+                }
+                start = at;
+            }
+            String value = out == null ? json.substring(start, at) : out.append(json, start, at).toString();
+            at++;
+            return value;
+        }
+    }
+
+    private static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
         }
+        out.append('"');
+    }
+
+    private static List<String> fields(Post post) {
+        if (post.content instanceof ImageContent) {
+            ImageContent image = (ImageContent) post.content;
+            return Arrays.asList(image.imageURL, image.caption);
+        } else if (post.content instanceof VideoContent) {
+            VideoContent video = (VideoContent) post.content;
+            return Arrays.asList(video.thumbnailURL, video.videoURL, video.caption);
+        } else if (post.content instanceof TextContent) {
+            return Arrays.asList(((TextContent) post.content).text);
+        }
+        return new ArrayList<>();
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    // Mean nanoseconds per run after an equal number of warm-up runs.
+    private static long time(Task task) throws Exception {
+        for (int i = 0; i < ROUNDS; i++) task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) task.run();
+        return (System.nanoTime() - start) / ROUNDS;
     }
 }
 ```xml